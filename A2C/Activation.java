@@ -0,0 +1,46 @@
+package A2C;
+
+/**
+ * Element-wise activation functions for hidden layers.
+ * Derivatives are expressed in terms of the activation's output, which is what the
+ * backward pass has cached.
+ */
+public enum Activation {
+    IDENTITY {
+        @Override
+        public double apply(double x) {
+            return x;
+        }
+
+        @Override
+        public double derivativeFromOutput(double y) {
+            return 1.0;
+        }
+    },
+    TANH {
+        @Override
+        public double apply(double x) {
+            return Math.tanh(x);
+        }
+
+        @Override
+        public double derivativeFromOutput(double y) {
+            return 1.0 - y * y;
+        }
+    },
+    RELU {
+        @Override
+        public double apply(double x) {
+            return x > 0 ? x : 0.0;
+        }
+
+        @Override
+        public double derivativeFromOutput(double y) {
+            return y > 0 ? 1.0 : 0.0;
+        }
+    };
+
+    public abstract double apply(double x);
+
+    public abstract double derivativeFromOutput(double y);
+}
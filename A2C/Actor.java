@@ -1,78 +1,76 @@
 package A2C;
 
+import linalg.Precision;
+import util.RolloutBuffer;
+
+import java.util.Arrays;
 import java.util.Random;
 
 public class Actor {
     private int stateDim;
     private int actionDim;
-    private double[][] weights; // shape: [actionDim x stateDim]
-    private double[] biases;    // shape: [actionDim]
+    private SoftmaxPolicy policy; // softmax over the logits of a Model with flat parameters
+    private PolicyPublisher publisher; // immutable snapshots for concurrent inference
+    private double[] dLogits;    // workspace for the backward pass
+    private double[] probs;      // workspace for selectAction and update
     private double learningRate;
     private Random random;
+    private double[] gradient;     // workspace for updateBatch
+    private double[] batchLogits;  // workspaces for updateBatch, grown to the rollout size
+    private double[] batchDLogits;
 
     public Actor(int stateDim, int actionDim, double learningRate) {
+        this(stateDim, actionDim, learningRate, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear actor whose parameters are stored with the given precision; a float actor
+     * is trained on rollouts stored as float.
+     */
+    public Actor(int stateDim, int actionDim, double learningRate, Precision precision) {
         this.stateDim = stateDim;
         this.actionDim = actionDim;
         this.learningRate = learningRate;
         this.random = new Random();
 
-        weights = new double[actionDim][stateDim];
-        biases = new double[actionDim];
         // Initialize weights to small random values
-        for (int i = 0; i < actionDim; i++) {
-            for (int j = 0; j < stateDim; j++) {
-                weights[i][j] = (random.nextDouble() - 0.5) * 0.1;
-            }
-            biases[i] = 0.0;
-        }
+        policy = new SoftmaxPolicy(stateDim, actionDim, random, precision);
+        probs = new double[actionDim];
+        dLogits = new double[actionDim];
+        publisher = new PolicyPublisher(policy);
+        gradient = new double[policy.getParameterDimension()];
+        batchLogits = new double[0];
+        batchDLogits = new double[0];
     }
 
-    // Forward pass: compute logits = W * state + b, then softmax
-    public double[] forward(double[] state) {
-        double[] logits = new double[actionDim];
-        for (int i = 0; i < actionDim; i++) {
-            double sum = biases[i];
-            for (int j = 0; j < stateDim; j++) {
-                sum += weights[i][j] * state[j];
-            }
-            logits[i] = sum;
-        }
-        return softmax(logits);
+    /**
+     * Creates an actor whose logits are computed by the given model (for example an {@link MLP}).
+     */
+    public Actor(Model model, double learningRate) {
+        this.stateDim = model.getInputDim();
+        this.actionDim = model.getOutputDim();
+        this.learningRate = learningRate;
+        this.random = new Random();
+        policy = new SoftmaxPolicy(model);
+        probs = new double[actionDim];
+        dLogits = new double[actionDim];
+        publisher = new PolicyPublisher(policy);
+        gradient = new double[policy.getParameterDimension()];
+        batchLogits = new double[0];
+        batchDLogits = new double[0];
     }
 
-    // Softmax helper method
-    private double[] softmax(double[] logits) {
-        double max = Double.NEGATIVE_INFINITY;
-        for (double l : logits) {
-            if (l > max) {
-                max = l;
-            }
-        }
-        double sum = 0.0;
-        double[] exp = new double[logits.length];
-        for (int i = 0; i < logits.length; i++) {
-            exp[i] = Math.exp(logits[i] - max);
-            sum += exp[i];
-        }
-        double[] probs = new double[logits.length];
-        for (int i = 0; i < logits.length; i++) {
-            probs[i] = exp[i] / sum;
-        }
-        return probs;
+    // Forward pass: compute logits = W * state + b, then softmax
+    public double[] forward(double[] state) {
+        double[] out = new double[actionDim];
+        policy.forward(state, out);
+        return out;
     }
 
     // Select an action by sampling from the computed probability distribution
     public int selectAction(double[] state) {
-        double[] probs = forward(state);
-        double r = random.nextDouble();
-        double cumulative = 0.0;
-        for (int i = 0; i < probs.length; i++) {
-            cumulative += probs[i];
-            if (r < cumulative) {
-                return i;
-            }
-        }
-        return probs.length - 1; // fallback
+        policy.forward(state, probs);
+        return SoftmaxPolicy.sample(probs, random);
     }
 
     /**
@@ -82,16 +80,81 @@ public class Actor {
      * This update pushes up the probability of the chosen action if advantage > 0.
      */
     public void update(double[] state, int action, double advantage) {
-        double[] probs = forward(state);
-        for (int i = 0; i < actionDim; i++) {
-            // Compute the difference between one-hot encoding and the probability.
-            double error = ((i == action) ? 1.0 : 0.0) - probs[i];
-            for (int j = 0; j < stateDim; j++) {
-                // Gradient ascent update: weights += lr * advantage * error * state[j]
-                weights[i][j] += learningRate * advantage * error * state[j];
+        policy.forward(state, probs);
+        // Gradient ascent directly on the flat parameter vector.
+        policy.applyLogProbGradient(state, action, probs, learningRate * advantage, dLogits);
+    }
+
+    /**
+     * Samples one action per state for a batch of states stored row-major ([batch x stateDim])
+     * with a single batched forward pass. The distributions are left in probsOut
+     * ([batch x actionDim]) so they can be stored with the rollout.
+     */
+    public void selectActions(double[] states, int batch, int[] actionsOut, double[] probsOut) {
+        policy.forwardBatch(states, batch, probsOut);
+        for (int n = 0; n < batch; n++) {
+            System.arraycopy(probsOut, n * actionDim, probs, 0, actionDim);
+            actionsOut[n] = SoftmaxPolicy.sample(probs, random);
+        }
+    }
+
+    /**
+     * Applies one policy gradient step over a whole rollout, averaged over its rows:
+     *    theta += learningRate / rows * sum_t advantage_t * grad log pi(a_t|s_t)
+     * The probabilities stored with the rollout are reused rather than recomputed, which is
+     * exact because the parameters do not change while a rollout is collected.
+     * Call after {@link RolloutBuffer#computeAdvantages}.
+     */
+    public void updateBatch(RolloutBuffer buffer) {
+        int rows = buffer.size();
+        if (batchDLogits.length < rows * actionDim) {
+            batchLogits = new double[rows * actionDim];
+            batchDLogits = new double[rows * actionDim];
+        }
+        boolean isFloat = (buffer.getPrecision() == Precision.FLOAT);
+        int[] actions = buffer.getActions();
+        double[] oldProbs = isFloat ? null : buffer.getProbs();
+        float[] floatOldProbs = isFloat ? buffer.getFloatProbs() : null;
+        double[] advantages = buffer.getAdvantages();
+        for (int n = 0; n < rows; n++) {
+            int row = n * actionDim;
+            for (int i = 0; i < actionDim; i++) {
+                double oldProb = isFloat ? floatOldProbs[row + i] : oldProbs[row + i];
+                batchDLogits[row + i] = advantages[n] * (((i == actions[n]) ? 1.0 : 0.0) - oldProb);
             }
-            // Update bias: bias += lr * advantage * error
-            biases[i] += learningRate * advantage * error;
         }
+        // The backward pass reads the hidden activations of a forward pass over the same rows;
+        // the logits themselves are not needed.
+        Arrays.fill(gradient, 0.0);
+        if (isFloat) {
+            float[] theta = policy.getFloatParameters();
+            float[] states = buffer.getFloatStates();
+            policy.getModel().forwardBatch(theta, states, 0, rows, batchLogits);
+            policy.accumulateGradientBatch(theta, states, 0, rows, batchDLogits, 1.0, gradient);
+        } else {
+            double[] states = buffer.getStates();
+            policy.getModel().forwardBatch(policy.getParameters(), states, rows, batchLogits);
+            policy.accumulateGradientBatch(states, rows, batchDLogits, 1.0, gradient);
+        }
+        policy.getParameterStorage().addScaled(learningRate / rows, gradient);
+    }
+
+    /**
+     * Publishes the current parameters to readers of {@link #getSnapshot()}.
+     * Call from the training thread, between updates.
+     */
+    public PolicySnapshot publish() {
+        return publisher.publish();
+    }
+
+    /**
+     * @return the latest published parameters, safe to use from any thread while training continues.
+     */
+    public PolicySnapshot getSnapshot() {
+        return publisher.current();
+    }
+
+    public SoftmaxPolicy getPolicy() {
+        return policy;
     }
 }
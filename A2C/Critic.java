@@ -1,42 +1,72 @@
 package A2C;
 
+import linalg.Precision;
+import util.RolloutBuffer;
+
 import java.util.Random;
 
 public class Critic {
     private int stateDim;
-    private double[] weights; // shape: [stateDim]
-    private double bias;
+    private ValueFunction valueFunction; // weights [stateDim] and bias in one flat vector
     private double learningRate;
     private Random random;
 
     public Critic(int stateDim, double learningRate) {
+        this(stateDim, learningRate, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear critic whose parameters are stored with the given precision.
+     */
+    public Critic(int stateDim, double learningRate, Precision precision) {
         this.stateDim = stateDim;
         this.learningRate = learningRate;
         this.random = new Random();
 
-        weights = new double[stateDim];
-        for (int i = 0; i < stateDim; i++) {
-            weights[i] = (random.nextDouble() - 0.5) * 0.1;
-        }
-        bias = 0.0;
+        valueFunction = new ValueFunction(stateDim, random, precision);
+    }
+
+    /**
+     * Creates a critic whose value is computed by the given single-output model (for example an {@link MLP}).
+     */
+    public Critic(Model model, double learningRate) {
+        this.stateDim = model.getInputDim();
+        this.learningRate = learningRate;
+        this.random = new Random();
+        valueFunction = new ValueFunction(model);
     }
 
     // Compute value: v = w^T * state + b
     public double value(double[] state) {
-        double v = bias;
-        for (int i = 0; i < stateDim; i++) {
-            v += weights[i] * state[i];
-        }
-        return v;
+        return valueFunction.value(state);
     }
 
     // Update the critic using the TD error: error = target - value(state)
     public void update(double[] state, double target) {
-        double v = value(state);
-        double error = target - v;
-        for (int i = 0; i < stateDim; i++) {
-            weights[i] += learningRate * error * state[i];
+        valueFunction.update(state, target, learningRate);
+    }
+
+    /**
+     * Computes the values of a batch of states stored row-major ([batch x stateDim]) into out.
+     */
+    public void values(double[] states, int batch, double[] out) {
+        valueFunction.valueBatch(states, batch, out);
+    }
+
+    /**
+     * Takes one gradient step on the squared error against the returns of a rollout,
+     * averaged over its rows. Call after {@link RolloutBuffer#computeAdvantages}.
+     */
+    public void updateBatch(RolloutBuffer buffer) {
+        int rows = buffer.size();
+        if (buffer.getPrecision() == Precision.FLOAT) {
+            valueFunction.updateBatch(buffer.getFloatStates(), buffer.getReturns(), rows, learningRate / rows);
+        } else {
+            valueFunction.updateBatch(buffer.getStates(), buffer.getReturns(), rows, learningRate / rows);
         }
-        bias += learningRate * error;
+    }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
     }
 }
@@ -0,0 +1,213 @@
+package A2C;
+
+import util.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Serves single-action requests from many threads with batched forward passes.
+ * Callers submit a state with {@link #selectAction} and get a future. One batching thread
+ * takes the oldest pending request, waits at most maxWaitNanos (measured from when that
+ * request arrived) for more, up to maxBatchSize in total, runs one
+ * {@link PolicySnapshot#forwardBatch} over them with the latest published snapshot, samples
+ * an action per row and completes the futures.
+ * <p>
+ * Callers only wait inside {@link CompletableFuture#join()} or {@code get()}, never while
+ * holding a monitor, so blocking is cheap for any kind of caller thread, including virtual
+ * threads on a JDK that has them. Latencies (from submission to completion) and batch
+ * sizes are recorded in histograms that can be read while the service runs.
+ */
+public class InferenceService implements AutoCloseable {
+    private final Supplier<PolicySnapshot> snapshots;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int stateDim;
+    private final int actionDim;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Histogram latencies = new Histogram();
+    private final AtomicLongArray batchSizes; // batchSizes[n] = number of batches of n requests
+    private final Thread batcher;
+    private volatile boolean closed;
+
+    // One pending call: a private copy of the state, the caller's future and its arrival time.
+    private static final class Request {
+        final double[] state;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        final long submittedNanos;
+
+        Request(double[] state, long submittedNanos) {
+            this.state = state;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+
+    /**
+     * Serves the snapshots an actor publishes, for example {@code new InferenceService(actor::getSnapshot, ...)}
+     * with an {@link Actor} or a {@link PPOActor}. Each batch uses the snapshot current when it runs.
+     *
+     * @param maxBatchSize largest number of requests per forward pass.
+     * @param maxWaitNanos longest time a request waits for others to join its batch.
+     */
+    public InferenceService(Supplier<PolicySnapshot> snapshots, int maxBatchSize, long maxWaitNanos) {
+        if (maxBatchSize <= 0 || maxWaitNanos < 0) {
+            throw new IllegalArgumentException("Error: the batch size must be positive and the wait not negative");
+        }
+        this.snapshots = snapshots;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        PolicySnapshot snapshot = snapshots.get();
+        this.stateDim = snapshot.getStateDim();
+        this.actionDim = snapshot.getActionDim();
+        this.batchSizes = new AtomicLongArray(maxBatchSize + 1);
+        this.batcher = new Thread(this::run, "inference-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+    }
+
+    /**
+     * Queues a request for one action. The state is copied, so the caller may reuse it at once.
+     * @return a future completed with the sampled action, or exceptionally if the state does
+     *         not have the policy's state dimension, the service is closed first or the forward
+     *         pass fails.
+     */
+    public CompletableFuture<Integer> selectAction(double[] state) {
+        if (state.length != stateDim) {
+            // Rejected here, so a malformed state cannot fail the other requests of its batch.
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Error: expected a state of length " + stateDim + ", got " + state.length));
+        }
+        Request request = new Request(state.clone(), System.nanoTime());
+        if (closed) {
+            request.result.completeExceptionally(closedException());
+            return request.result;
+        }
+        queue.add(request);
+        if (closed) {
+            // close() may have drained the queue just before this request was added.
+            failPending();
+        }
+        return request.result;
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        double[] states = new double[maxBatchSize * stateDim];
+        double[] probs = new double[maxBatchSize * actionDim];
+        double[] rowProbs = new double[actionDim];
+        Random random = new Random();
+        try {
+            while (!closed) {
+                batch.clear();
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = first.submittedNanos + maxWaitNanos;
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                serve(batch, states, probs, rowProbs, random);
+            }
+        } catch (InterruptedException e) {
+            // close() interrupts the batcher and fails the queued requests; fail the ones taken already.
+            for (Request request : batch) {
+                request.result.completeExceptionally(closedException());
+            }
+        }
+    }
+
+    private void serve(List<Request> batch, double[] states, double[] probs, double[] rowProbs, Random random) {
+        int size = batch.size();
+        try {
+            for (int n = 0; n < size; n++) {
+                System.arraycopy(batch.get(n).state, 0, states, n * stateDim, stateDim);
+            }
+            snapshots.get().forwardBatch(states, size, probs);
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+            return;
+        }
+        batchSizes.getAndIncrement(size);
+        for (int n = 0; n < size; n++) {
+            System.arraycopy(probs, n * actionDim, rowProbs, 0, actionDim);
+            Request request = batch.get(n);
+            latencies.record(System.nanoTime() - request.submittedNanos);
+            request.result.complete(SoftmaxPolicy.sample(rowProbs, random));
+        }
+    }
+
+    /**
+     * Stops the batching thread and fails every request still pending. If the calling thread
+     * is interrupted while waiting for the batcher, its interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        batcher.interrupt();
+        try {
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            failPending();
+        }
+    }
+
+    private void failPending() {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(closedException());
+        }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("Error: the inference service is closed");
+    }
+
+    /**
+     * @param quantile for example 0.5 for the median or 0.99.
+     * @return the latency from submission to completion at that quantile, in nanoseconds.
+     */
+    public long getLatencyPercentile(double quantile) {
+        return latencies.percentile(quantile);
+    }
+
+    public Histogram getLatencyHistogram() {
+        return latencies;
+    }
+
+    /**
+     * @return counts[n] = number of forward passes run over n requests, for n up to maxBatchSize.
+     */
+    public long[] getBatchSizeCounts() {
+        long[] counts = new long[batchSizes.length()];
+        for (int n = 0; n < counts.length; n++) {
+            counts[n] = batchSizes.get(n);
+        }
+        return counts;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+}
@@ -0,0 +1,643 @@
+package A2C;
+
+import linalg.Blas;
+import linalg.Precision;
+
+import java.util.Random;
+
+/**
+ * A fully connected multi-layer perceptron with hand-written backpropagation.
+ * Hidden layers use a configurable activation; the output layer is linear. With no
+ * hidden layers the network is the single linear layer W * x + b.
+ * <p>
+ * All weights and biases live in one {@link Parameters} vector: for each layer, the
+ * weights row-major ([out x in]) followed by the biases. Activations and backward
+ * deltas are kept in a per-thread workspace that is allocated once, so a forward and
+ * backward pass allocate nothing and one network can be evaluated by several threads.
+ * Batches of inputs go through {@link #forwardBatch} and {@link #backwardBatch} as
+ * matrix-matrix products (see {@link Blas}).
+ * <p>
+ * A network whose {@link Parameters} are stored with {@link Precision#FLOAT} runs the
+ * float[] passes: weights, inputs, activations and deltas are float and go through the
+ * single-precision kernels, while weight and bias gradients are summed over the batch
+ * in double.
+ */
+public class MLP implements Model {
+    private final int[] sizes; // sizes[0] = input, sizes[layers] = output
+    private final int layers;
+    private final Activation activation;
+    private final Parameters parameters;
+    private final int[] weightOffsets;
+    private final int[] biasOffsets;
+    private final ThreadLocal<Workspace> workspaces;
+    private final ThreadLocal<BatchWorkspace> batchWorkspaces;
+
+    // Per-thread buffers: post-activation outputs of each hidden layer and deltas of each layer,
+    // for the double and the float passes (floatInput holds the input of the last float forward).
+    private static final class Workspace {
+        final double[][] activations;
+        final double[][] deltas;
+        final float[][] floatActivations;
+        final float[][] floatDeltas;
+        final float[] floatInput;
+
+        Workspace(int[] sizes) {
+            int layers = sizes.length - 1;
+            activations = new double[layers][];
+            deltas = new double[layers][];
+            floatActivations = new float[layers][];
+            floatDeltas = new float[layers][];
+            floatInput = new float[sizes[0]];
+            for (int l = 0; l < layers; l++) {
+                activations[l] = new double[sizes[l + 1]];
+                deltas[l] = new double[sizes[l + 1]];
+                floatActivations[l] = new float[sizes[l + 1]];
+                floatDeltas[l] = new float[sizes[l + 1]];
+            }
+        }
+    }
+
+    // Per-thread [batch x width] buffers for the batched passes (including the forward-mode
+    // tangents of jvpBatch); grown on demand, never shrunk. The float buffers are only used
+    // by the float passes; there the last layer's activations hold the output before it is
+    // widened to double, and floatInputs holds double inputs rounded to float.
+    private static final class BatchWorkspace {
+        final double[][] activations;
+        final double[][] deltas;
+        final double[][] tangents;
+        double[] squaredInputs = new double[0];
+        final float[][] floatActivations;
+        final float[][] floatDeltas;
+        final float[][] floatTangents;
+        float[] floatInputs = new float[0];
+        float[] floatSquaredInputs = new float[0];
+        float[] floatDirection; // the jvpBatch direction rounded to float
+        int capacity;
+        int floatCapacity;
+
+        BatchWorkspace(int layers) {
+            activations = new double[layers][0];
+            deltas = new double[layers][0];
+            tangents = new double[layers][0];
+            floatActivations = new float[layers][0];
+            floatDeltas = new float[layers][0];
+            floatTangents = new float[layers][0];
+        }
+
+        void ensureCapacity(int[] sizes, int batch) {
+            if (batch <= capacity) {
+                return;
+            }
+            capacity = Math.max(batch, capacity * 2);
+            squaredInputs = new double[capacity * sizes[0]];
+            for (int l = 0; l < activations.length; l++) {
+                activations[l] = new double[capacity * sizes[l + 1]];
+                deltas[l] = new double[capacity * sizes[l + 1]];
+                tangents[l] = new double[capacity * sizes[l + 1]];
+            }
+        }
+
+        void ensureFloatCapacity(int[] sizes, int batch) {
+            if (batch <= floatCapacity) {
+                return;
+            }
+            floatCapacity = Math.max(batch, floatCapacity * 2);
+            floatInputs = new float[floatCapacity * sizes[0]];
+            floatSquaredInputs = new float[floatCapacity * sizes[0]];
+            for (int l = 0; l < floatActivations.length; l++) {
+                floatActivations[l] = new float[floatCapacity * sizes[l + 1]];
+                floatDeltas[l] = new float[floatCapacity * sizes[l + 1]];
+                floatTangents[l] = new float[floatCapacity * sizes[l + 1]];
+            }
+        }
+    }
+
+    /**
+     * Creates a network with its own parameter storage and random initial weights.
+     * Hidden layers are initialized uniformly with the Glorot range; the output layer
+     * uses small values in [-0.05, 0.05) and all biases start at 0.
+     *
+     * @param hiddenSizes widths of the hidden layers; empty for a linear model.
+     */
+    public MLP(int inputDim, int[] hiddenSizes, int outputDim, Activation activation, Random random) {
+        this(inputDim, hiddenSizes, outputDim, activation, random, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a randomly initialized network whose parameters are stored with the given precision.
+     * The same random generator state gives the same weights in either precision, up to rounding.
+     */
+    public MLP(int inputDim, int[] hiddenSizes, int outputDim, Activation activation, Random random,
+               Precision precision) {
+        this(inputDim, hiddenSizes, outputDim, activation,
+                new Parameters(parameterCount(inputDim, hiddenSizes, outputDim), precision));
+        double[] theta = new double[parameters.size()];
+        for (int l = 0; l < layers; l++) {
+            int fanIn = sizes[l];
+            int fanOut = sizes[l + 1];
+            double range = (l == layers - 1) ? 0.1 : 2 * Math.sqrt(6.0 / (fanIn + fanOut));
+            for (int k = 0; k < fanIn * fanOut; k++) {
+                theta[weightOffsets[l] + k] = (random.nextDouble() - 0.5) * range;
+            }
+        }
+        parameters.copyFrom(theta);
+    }
+
+    /**
+     * Creates a network over a range allocated from shared parameter storage.
+     */
+    public MLP(int inputDim, int[] hiddenSizes, int outputDim, Activation activation, Parameters parameters) {
+        this.layers = hiddenSizes.length + 1;
+        this.sizes = new int[layers + 1];
+        sizes[0] = inputDim;
+        System.arraycopy(hiddenSizes, 0, sizes, 1, hiddenSizes.length);
+        sizes[layers] = outputDim;
+        this.activation = activation;
+        this.parameters = parameters;
+
+        weightOffsets = new int[layers];
+        biasOffsets = new int[layers];
+        for (int l = 0; l < layers; l++) {
+            weightOffsets[l] = parameters.allocate(sizes[l] * sizes[l + 1]);
+            biasOffsets[l] = parameters.allocate(sizes[l + 1]);
+        }
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(sizes));
+        batchWorkspaces = ThreadLocal.withInitial(() -> new BatchWorkspace(layers));
+    }
+
+    /**
+     * @return the number of parameters of a network with the given layer sizes.
+     */
+    public static int parameterCount(int inputDim, int[] hiddenSizes, int outputDim) {
+        int count = 0;
+        int in = inputDim;
+        for (int h : hiddenSizes) {
+            count += in * h + h;
+            in = h;
+        }
+        return count + in * outputDim + outputDim;
+    }
+
+    @Override
+    public int getInputDim() {
+        return sizes[0];
+    }
+
+    @Override
+    public int getOutputDim() {
+        return sizes[layers];
+    }
+
+    @Override
+    public Parameters getParameterStorage() {
+        return parameters;
+    }
+
+    @Override
+    public void forward(double[] theta, double[] input, double[] out) {
+        Workspace ws = workspaces.get();
+        double[] in = input;
+        for (int l = 0; l < layers; l++) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            boolean last = (l == layers - 1);
+            double[] a = last ? out : ws.activations[l];
+            int w = weightOffsets[l];
+            int b = biasOffsets[l];
+            for (int i = 0; i < outSize; i++) {
+                double sum = theta[b + i];
+                int row = w + i * inSize;
+                for (int j = 0; j < inSize; j++) {
+                    sum += theta[row + j] * in[j];
+                }
+                a[i] = last ? sum : activation.apply(sum);
+            }
+            in = a;
+        }
+    }
+
+    @Override
+    public void backward(double[] input, double[] dOut, double scale, double[] grad) {
+        Workspace ws = workspaces.get();
+        double[] theta = parameters.values();
+        double[] delta = ws.deltas[layers - 1];
+        for (int i = 0; i < sizes[layers]; i++) {
+            delta[i] = scale * dOut[i];
+        }
+        for (int l = layers - 1; l >= 0; l--) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            double[] in = (l == 0) ? input : ws.activations[l - 1];
+            int w = weightOffsets[l];
+            int b = biasOffsets[l];
+
+            // Propagate to the previous layer before this layer's weights are updated,
+            // since grad may be the parameter vector itself.
+            if (l > 0) {
+                double[] prevDelta = ws.deltas[l - 1];
+                for (int j = 0; j < inSize; j++) {
+                    double sum = 0.0;
+                    for (int i = 0; i < outSize; i++) {
+                        sum += theta[w + i * inSize + j] * delta[i];
+                    }
+                    prevDelta[j] = sum * activation.derivativeFromOutput(in[j]);
+                }
+            }
+
+            for (int i = 0; i < outSize; i++) {
+                double d = delta[i];
+                int row = w + i * inSize;
+                for (int j = 0; j < inSize; j++) {
+                    grad[row + j] += d * in[j];
+                }
+                grad[b + i] += d;
+            }
+            if (l > 0) {
+                delta = ws.deltas[l - 1];
+            }
+        }
+    }
+
+    @Override
+    public void forwardBatch(double[] theta, double[] inputs, int first, int batch, double[] out) {
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureCapacity(sizes, batch);
+        double[] in = inputs;
+        int inOffset = first * sizes[0];
+        for (int l = 0; l < layers; l++) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            boolean last = (l == layers - 1);
+            double[] a = last ? out : ws.activations[l];
+            // A [batch x out] = In [batch x in] * W^T, then bias and activation row by row.
+            Blas.gemmNT(batch, outSize, inSize, 1.0, in, inOffset, inSize, theta, weightOffsets[l], inSize,
+                    0.0, a, 0, outSize);
+            int b = biasOffsets[l];
+            for (int n = 0; n < batch; n++) {
+                int row = n * outSize;
+                for (int i = 0; i < outSize; i++) {
+                    double sum = a[row + i] + theta[b + i];
+                    a[row + i] = last ? sum : activation.apply(sum);
+                }
+            }
+            in = a;
+            inOffset = 0;
+        }
+    }
+
+    @Override
+    public void backwardBatch(double[] theta, double[] inputs, int first, int batch, double[] dOut, double scale,
+                              double[] grad) {
+        BatchWorkspace ws = batchWorkspaces.get();
+        int outDim = sizes[layers];
+        double[] delta = ws.deltas[layers - 1];
+        for (int k = 0; k < batch * outDim; k++) {
+            delta[k] = scale * dOut[k];
+        }
+        for (int l = layers - 1; l >= 0; l--) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            double[] in = (l == 0) ? inputs : ws.activations[l - 1];
+            int inOffset = (l == 0) ? first * inSize : 0;
+            int w = weightOffsets[l];
+
+            // Propagate first, since grad may be the parameter vector itself:
+            // PrevDelta [batch x in] = Delta [batch x out] * W, times f'(activation).
+            if (l > 0) {
+                double[] prevDelta = ws.deltas[l - 1];
+                Blas.gemm(batch, inSize, outSize, 1.0, delta, 0, outSize, theta, w, inSize,
+                        0.0, prevDelta, 0, inSize);
+                for (int k = 0; k < batch * inSize; k++) {
+                    prevDelta[k] *= activation.derivativeFromOutput(in[k]);
+                }
+            }
+
+            // dW [out x in] += Delta^T * In; db += column sums of Delta.
+            Blas.gemmTN(outSize, inSize, batch, 1.0, delta, 0, outSize, in, inOffset, inSize,
+                    1.0, grad, w, inSize);
+            Blas.addRows(batch, outSize, 1.0, delta, 0, outSize, grad, biasOffsets[l]);
+            if (l > 0) {
+                delta = ws.deltas[l - 1];
+            }
+        }
+    }
+
+    @Override
+    public void jvpBatch(double[] inputs, int first, int batch, double[] v, double[] tangentOut) {
+        double[] theta = parameters.values();
+        // Fill the workspace a following backwardBatch reads (tangentOut is scratch until overwritten below).
+        if (layers > 1) {
+            forwardBatch(theta, inputs, first, batch, tangentOut);
+        }
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureCapacity(sizes, batch);
+        for (int l = 0; l < layers; l++) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            boolean last = (l == layers - 1);
+            double[] dz = last ? tangentOut : ws.tangents[l];
+            int w = weightOffsets[l];
+            // dZ = In * dW^T + dIn * W^T + db; the inputs themselves have no tangent.
+            if (l == 0) {
+                Blas.gemmNT(batch, outSize, inSize, 1.0, inputs, first * inSize, inSize, v, w, inSize,
+                        0.0, dz, 0, outSize);
+            } else {
+                Blas.gemmNT(batch, outSize, inSize, 1.0, ws.activations[l - 1], 0, inSize, v, w, inSize,
+                        0.0, dz, 0, outSize);
+                Blas.gemmNT(batch, outSize, inSize, 1.0, ws.tangents[l - 1], 0, inSize, theta, w, inSize,
+                        1.0, dz, 0, outSize);
+            }
+            int b = biasOffsets[l];
+            double[] a = ws.activations[l];
+            for (int n = 0; n < batch; n++) {
+                int row = n * outSize;
+                for (int i = 0; i < outSize; i++) {
+                    double t = dz[row + i] + v[b + i];
+                    dz[row + i] = last ? t : t * activation.derivativeFromOutput(a[row + i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void squaredGradientBatch(double[] inputs, int first, int batch, double[] dOut, double scale, double[] out) {
+        double[] theta = parameters.values();
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureCapacity(sizes, batch);
+        int outDim = sizes[layers];
+        // The forward output is only needed for its activations; the last tangent buffer is free scratch.
+        forwardBatch(theta, inputs, first, batch, ws.tangents[layers - 1]);
+        double[] delta = ws.deltas[layers - 1];
+        System.arraycopy(dOut, 0, delta, 0, batch * outDim);
+        for (int l = layers - 1; l >= 0; l--) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            double[] in = (l == 0) ? inputs : ws.activations[l - 1];
+            int inOffset = (l == 0) ? first * inSize : 0;
+            if (l > 0) {
+                double[] prevDelta = ws.deltas[l - 1];
+                Blas.gemm(batch, inSize, outSize, 1.0, delta, 0, outSize, theta, weightOffsets[l], inSize,
+                        0.0, prevDelta, 0, inSize);
+                for (int k = 0; k < batch * inSize; k++) {
+                    prevDelta[k] *= activation.derivativeFromOutput(in[k]);
+                }
+            }
+            // The per-row weight gradient is delta_n[i] * in_n[j], so its square sums to
+            // (Delta^2)^T * In^2; the squares go into the tangent buffers, unused here.
+            double[] deltaSq = ws.tangents[l];
+            for (int k = 0; k < batch * outSize; k++) {
+                deltaSq[k] = delta[k] * delta[k];
+            }
+            // Activations of layer l - 1 are not read again, so they are squared in place.
+            double[] inSq = (l == 0) ? ws.squaredInputs : ws.activations[l - 1];
+            for (int k = 0; k < batch * inSize; k++) {
+                double x = in[inOffset + k];
+                inSq[k] = x * x;
+            }
+            Blas.gemmTN(outSize, inSize, batch, scale, deltaSq, 0, outSize, inSq, 0, inSize,
+                    1.0, out, weightOffsets[l], inSize);
+            Blas.addRows(batch, outSize, scale, deltaSq, 0, outSize, out, biasOffsets[l]);
+            if (l > 0) {
+                delta = ws.deltas[l - 1];
+            }
+        }
+    }
+
+    @Override
+    public void forward(float[] theta, double[] input, double[] out) {
+        Workspace ws = workspaces.get();
+        float[] in = ws.floatInput;
+        for (int j = 0; j < sizes[0]; j++) {
+            in[j] = (float) input[j];
+        }
+        for (int l = 0; l < layers; l++) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            boolean last = (l == layers - 1);
+            float[] a = ws.floatActivations[l];
+            int w = weightOffsets[l];
+            int b = biasOffsets[l];
+            for (int i = 0; i < outSize; i++) {
+                float sum = theta[b + i];
+                int row = w + i * inSize;
+                for (int j = 0; j < inSize; j++) {
+                    sum += theta[row + j] * in[j];
+                }
+                if (last) {
+                    out[i] = sum;
+                } else {
+                    a[i] = (float) activation.apply(sum);
+                }
+            }
+            in = a;
+        }
+    }
+
+    @Override
+    public void backward(double[] input, double[] dOut, double scale, float[] grad) {
+        // The input was rounded into the workspace by the forward pass this follows.
+        Workspace ws = workspaces.get();
+        float[] theta = parameters.floatValues();
+        float[] delta = ws.floatDeltas[layers - 1];
+        for (int i = 0; i < sizes[layers]; i++) {
+            delta[i] = (float) (scale * dOut[i]);
+        }
+        for (int l = layers - 1; l >= 0; l--) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            float[] in = (l == 0) ? ws.floatInput : ws.floatActivations[l - 1];
+            int w = weightOffsets[l];
+            int b = biasOffsets[l];
+
+            // Propagate first, since grad may be the parameter vector itself.
+            if (l > 0) {
+                float[] prevDelta = ws.floatDeltas[l - 1];
+                for (int j = 0; j < inSize; j++) {
+                    float sum = 0.0f;
+                    for (int i = 0; i < outSize; i++) {
+                        sum += theta[w + i * inSize + j] * delta[i];
+                    }
+                    prevDelta[j] = sum * (float) activation.derivativeFromOutput(in[j]);
+                }
+            }
+
+            for (int i = 0; i < outSize; i++) {
+                float d = delta[i];
+                int row = w + i * inSize;
+                for (int j = 0; j < inSize; j++) {
+                    grad[row + j] += d * in[j];
+                }
+                grad[b + i] += d;
+            }
+            if (l > 0) {
+                delta = ws.floatDeltas[l - 1];
+            }
+        }
+    }
+
+    @Override
+    public void forwardBatch(float[] theta, float[] inputs, int first, int batch, double[] out) {
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureFloatCapacity(sizes, batch);
+        forwardBatchFloat(ws, theta, inputs, first * sizes[0], batch);
+        float[] a = ws.floatActivations[layers - 1];
+        for (int k = 0; k < batch * sizes[layers]; k++) {
+            out[k] = a[k];
+        }
+    }
+
+    @Override
+    public void forwardBatch(float[] theta, double[] inputs, int first, int batch, double[] out) {
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureFloatCapacity(sizes, batch);
+        Blas.toFloat(inputs, first * sizes[0], ws.floatInputs, 0, batch * sizes[0]);
+        forwardBatch(theta, ws.floatInputs, 0, batch, out);
+    }
+
+    // Runs the float layers on rows of inputs starting at inOffset, leaving every layer's
+    // output (the last one without an activation) in the workspace.
+    private void forwardBatchFloat(BatchWorkspace ws, float[] theta, float[] inputs, int inOffset, int batch) {
+        float[] in = inputs;
+        for (int l = 0; l < layers; l++) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            boolean last = (l == layers - 1);
+            float[] a = ws.floatActivations[l];
+            Blas.gemmNT(batch, outSize, inSize, 1.0f, in, inOffset, inSize, theta, weightOffsets[l], inSize,
+                    0.0f, a, 0, outSize);
+            int b = biasOffsets[l];
+            for (int n = 0; n < batch; n++) {
+                int row = n * outSize;
+                for (int i = 0; i < outSize; i++) {
+                    float sum = a[row + i] + theta[b + i];
+                    a[row + i] = last ? sum : (float) activation.apply(sum);
+                }
+            }
+            in = a;
+            inOffset = 0;
+        }
+    }
+
+    @Override
+    public void backwardBatch(float[] theta, float[] inputs, int first, int batch, double[] dOut, double scale,
+                              double[] grad) {
+        BatchWorkspace ws = batchWorkspaces.get();
+        int outDim = sizes[layers];
+        float[] delta = ws.floatDeltas[layers - 1];
+        for (int k = 0; k < batch * outDim; k++) {
+            delta[k] = (float) (scale * dOut[k]);
+        }
+        for (int l = layers - 1; l >= 0; l--) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            float[] in = (l == 0) ? inputs : ws.floatActivations[l - 1];
+            int inOffset = (l == 0) ? first * inSize : 0;
+            int w = weightOffsets[l];
+
+            if (l > 0) {
+                float[] prevDelta = ws.floatDeltas[l - 1];
+                Blas.gemm(batch, inSize, outSize, 1.0f, delta, 0, outSize, theta, w, inSize,
+                        0.0f, prevDelta, 0, inSize);
+                for (int k = 0; k < batch * inSize; k++) {
+                    prevDelta[k] *= (float) activation.derivativeFromOutput(in[k]);
+                }
+            }
+
+            // The sums over the batch are accumulated in the double gradient.
+            Blas.gemmTN(outSize, inSize, batch, 1.0f, delta, 0, outSize, in, inOffset, inSize,
+                    grad, w, inSize);
+            Blas.addRows(batch, outSize, 1.0f, delta, 0, outSize, grad, biasOffsets[l]);
+            if (l > 0) {
+                delta = ws.floatDeltas[l - 1];
+            }
+        }
+    }
+
+    @Override
+    public void jvpBatch(float[] inputs, int first, int batch, double[] v, double[] tangentOut) {
+        float[] theta = parameters.floatValues();
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureFloatCapacity(sizes, batch);
+        if (ws.floatDirection == null) {
+            ws.floatDirection = new float[parameters.size()];
+        }
+        float[] u = ws.floatDirection;
+        Blas.toFloat(v, 0, u, 0, u.length);
+        // Fill the workspace a following backwardBatch reads.
+        if (layers > 1) {
+            forwardBatchFloat(ws, theta, inputs, first * sizes[0], batch);
+        }
+        for (int l = 0; l < layers; l++) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            boolean last = (l == layers - 1);
+            float[] dz = ws.floatTangents[l];
+            int w = weightOffsets[l];
+            if (l == 0) {
+                Blas.gemmNT(batch, outSize, inSize, 1.0f, inputs, first * inSize, inSize, u, w, inSize,
+                        0.0f, dz, 0, outSize);
+            } else {
+                Blas.gemmNT(batch, outSize, inSize, 1.0f, ws.floatActivations[l - 1], 0, inSize, u, w, inSize,
+                        0.0f, dz, 0, outSize);
+                Blas.gemmNT(batch, outSize, inSize, 1.0f, ws.floatTangents[l - 1], 0, inSize, theta, w, inSize,
+                        1.0f, dz, 0, outSize);
+            }
+            int b = biasOffsets[l];
+            float[] a = ws.floatActivations[l];
+            for (int n = 0; n < batch; n++) {
+                int row = n * outSize;
+                for (int i = 0; i < outSize; i++) {
+                    float t = dz[row + i] + u[b + i];
+                    if (last) {
+                        tangentOut[row + i] = t;
+                    } else {
+                        dz[row + i] = t * (float) activation.derivativeFromOutput(a[row + i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void squaredGradientBatch(float[] inputs, int first, int batch, double[] dOut, double scale, double[] out) {
+        float[] theta = parameters.floatValues();
+        BatchWorkspace ws = batchWorkspaces.get();
+        ws.ensureFloatCapacity(sizes, batch);
+        int outDim = sizes[layers];
+        forwardBatchFloat(ws, theta, inputs, first * sizes[0], batch);
+        float[] delta = ws.floatDeltas[layers - 1];
+        for (int k = 0; k < batch * outDim; k++) {
+            delta[k] = (float) dOut[k];
+        }
+        for (int l = layers - 1; l >= 0; l--) {
+            int inSize = sizes[l];
+            int outSize = sizes[l + 1];
+            float[] in = (l == 0) ? inputs : ws.floatActivations[l - 1];
+            int inOffset = (l == 0) ? first * inSize : 0;
+            if (l > 0) {
+                float[] prevDelta = ws.floatDeltas[l - 1];
+                Blas.gemm(batch, inSize, outSize, 1.0f, delta, 0, outSize, theta, weightOffsets[l], inSize,
+                        0.0f, prevDelta, 0, inSize);
+                for (int k = 0; k < batch * inSize; k++) {
+                    prevDelta[k] *= (float) activation.derivativeFromOutput(in[k]);
+                }
+            }
+            // As in the double version: (Delta^2)^T * In^2, with the squares in otherwise unused buffers.
+            float[] deltaSq = ws.floatTangents[l];
+            for (int k = 0; k < batch * outSize; k++) {
+                deltaSq[k] = delta[k] * delta[k];
+            }
+            float[] inSq = (l == 0) ? ws.floatSquaredInputs : ws.floatActivations[l - 1];
+            for (int k = 0; k < batch * inSize; k++) {
+                float x = in[inOffset + k];
+                inSq[k] = x * x;
+            }
+            Blas.gemmTN(outSize, inSize, batch, (float) scale, deltaSq, 0, outSize, inSq, 0, inSize,
+                    out, weightOffsets[l], inSize);
+            Blas.addRows(batch, outSize, (float) scale, deltaSq, 0, outSize, out, biasOffsets[l]);
+            if (l > 0) {
+                delta = ws.floatDeltas[l - 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package A2C;
+
+import linalg.Precision;
+
+/**
+ * A differentiable function approximator with flat parameter storage.
+ * Maps an input vector to raw outputs (logits for a policy, a single value for a critic)
+ * and back-propagates output gradients into a flat gradient vector laid out like
+ * {@link #getParameters()}.
+ * <p>
+ * Every pass comes in two precisions, selected by the type of the parameter vector:
+ * the double[] passes for models stored with {@link Precision#DOUBLE} and the float[]
+ * passes for models stored with {@link Precision#FLOAT}. The float passes compute in
+ * float on float inputs, return outputs as double and accumulate gradients (sums over
+ * a batch) in double.
+ */
+public interface Model {
+
+    int getInputDim();
+
+    int getOutputDim();
+
+    /**
+     * @return the flat parameter vector backing this model (zero-copy).
+     * @throws IllegalStateException if the model is stored as float.
+     */
+    default double[] getParameters() {
+        return getParameterStorage().values();
+    }
+
+    /**
+     * @return the flat float parameter vector backing this model (zero-copy).
+     * @throws IllegalStateException if the model is stored as double.
+     */
+    default float[] getFloatParameters() {
+        return getParameterStorage().floatValues();
+    }
+
+    Parameters getParameterStorage();
+
+    default Precision getPrecision() {
+        return getParameterStorage().getPrecision();
+    }
+
+    /**
+     * Computes the outputs for an input using the model's own parameters, in their precision.
+     */
+    default void forward(double[] input, double[] out) {
+        if (getPrecision() == Precision.FLOAT) {
+            forward(getFloatParameters(), input, out);
+        } else {
+            forward(getParameters(), input, out);
+        }
+    }
+
+    /**
+     * Computes the outputs using an alternative flat parameter vector laid out like
+     * {@link #getParameters()}, without touching the model.
+     */
+    void forward(double[] theta, double[] input, double[] out);
+
+    /**
+     * Adds scale * d(dOut . outputs)/d(parameters) to grad.
+     * Must follow a {@link #forward} call with the same input on the same thread,
+     * whose intermediate activations it reuses.
+     *
+     * @param dOut gradient of the loss with respect to each output.
+     * @param grad a flat vector laid out like {@link #getParameters()}; passing
+     *             {@link #getParameters()} itself applies the step in place.
+     */
+    void backward(double[] input, double[] dOut, double scale, double[] grad);
+
+    /**
+     * Computes the outputs for a batch of inputs stored row-major ([batch x inputDim])
+     * into out ([batch x outputDim]), using the given flat parameter vector.
+     */
+    default void forwardBatch(double[] theta, double[] inputs, int batch, double[] out) {
+        forwardBatch(theta, inputs, 0, batch, out);
+    }
+
+    /**
+     * Computes the outputs for rows [first, first + batch) of a row-major input matrix.
+     * The default evaluates one row at a time; implementations such as {@link MLP}
+     * override it with matrix-matrix kernels.
+     */
+    default void forwardBatch(double[] theta, double[] inputs, int first, int batch, double[] out) {
+        int inDim = getInputDim();
+        int outDim = getOutputDim();
+        double[] row = new double[inDim];
+        double[] rowOut = new double[outDim];
+        for (int n = 0; n < batch; n++) {
+            System.arraycopy(inputs, (first + n) * inDim, row, 0, inDim);
+            forward(theta, row, rowOut);
+            System.arraycopy(rowOut, 0, out, n * outDim, outDim);
+        }
+    }
+
+    /**
+     * Adds scale * sum over the batch of d(dOut_n . outputs_n)/d(parameters) to grad.
+     * Must follow a {@link #forwardBatch} (or {@link #jvpBatch}) call with the same inputs
+     * on the same thread, using the model's own parameters.
+     *
+     * @param dOut gradient of the loss with respect to each output, [batch x outputDim].
+     */
+    default void backwardBatch(double[] inputs, int batch, double[] dOut, double scale, double[] grad) {
+        backwardBatch(inputs, 0, batch, dOut, scale, grad);
+    }
+
+    /**
+     * {@link #backwardBatch(double[], int, double[], double, double[])} for rows [first, first + batch) of inputs.
+     */
+    default void backwardBatch(double[] inputs, int first, int batch, double[] dOut, double scale, double[] grad) {
+        backwardBatch(getParameters(), inputs, first, batch, dOut, scale, grad);
+    }
+
+    /**
+     * Back-propagates through an alternative flat parameter vector laid out like
+     * {@link #getParameters()}, for example a snapshot of parameters that other threads update.
+     * Must follow a {@link #forwardBatch} call with the same theta and inputs on the same thread.
+     */
+    void backwardBatch(double[] theta, double[] inputs, int first, int batch, double[] dOut, double scale,
+                       double[] grad);
+
+    /**
+     * Forward-mode derivative: writes J_n * v into tangentOut ([batch x outputDim]) for rows
+     * [first, first + batch) of inputs, where J_n is the Jacobian of the outputs at input n
+     * with respect to the parameters, at the model's own parameters. A following
+     * {@link #backwardBatch} on the same rows may reuse its intermediate activations.
+     *
+     * @param v a direction laid out like {@link #getParameters()}.
+     */
+    void jvpBatch(double[] inputs, int first, int batch, double[] v, double[] tangentOut);
+
+    /**
+     * Adds scale * sum over rows [first, first + batch) of the element-wise squared
+     * per-row gradient (d(dOut_n . outputs_n)/d(parameters))^2 to out, at the model's own
+     * parameters. Used for diagonal curvature estimates; runs its own forward pass.
+     */
+    void squaredGradientBatch(double[] inputs, int first, int batch, double[] dOut, double scale, double[] out);
+
+    /**
+     * Float version of {@link #forward(double[], double[], double[])}, with float parameters.
+     */
+    void forward(float[] theta, double[] input, double[] out);
+
+    /**
+     * Float version of {@link #backward(double[], double[], double, double[])} into a float vector,
+     * for example {@link #getFloatParameters()} to apply the step in place.
+     * Must follow {@link #forward(float[], double[], double[])} with the same input on the same thread.
+     */
+    void backward(double[] input, double[] dOut, double scale, float[] grad);
+
+    /**
+     * Float version of {@link #forwardBatch(double[], double[], int, int, double[])}: rows
+     * [first, first + batch) of a float input matrix, with float parameters.
+     */
+    void forwardBatch(float[] theta, float[] inputs, int first, int batch, double[] out);
+
+    /**
+     * {@link #forwardBatch(float[], float[], int, int, double[])} for double inputs, which are
+     * rounded to float first. For inference; a backward pass cannot follow it.
+     */
+    void forwardBatch(float[] theta, double[] inputs, int first, int batch, double[] out);
+
+    /**
+     * Float version of {@link #backwardBatch(double[], double[], int, int, double[], double, double[])};
+     * the gradient is accumulated in double.
+     * Must follow {@link #forwardBatch(float[], float[], int, int, double[])} with the same theta and
+     * inputs on the same thread.
+     */
+    void backwardBatch(float[] theta, float[] inputs, int first, int batch, double[] dOut, double scale,
+                       double[] grad);
+
+    /**
+     * Float version of {@link #jvpBatch(double[], int, int, double[], double[])} at the model's own
+     * float parameters; v is rounded to float.
+     */
+    void jvpBatch(float[] inputs, int first, int batch, double[] v, double[] tangentOut);
+
+    /**
+     * Float version of {@link #squaredGradientBatch(double[], int, int, double[], double, double[])}
+     * at the model's own float parameters; the sums are accumulated in double.
+     */
+    void squaredGradientBatch(float[] inputs, int first, int batch, double[] dOut, double scale, double[] out);
+}
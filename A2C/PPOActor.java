@@ -1,66 +1,69 @@
 package A2C;
 
+import linalg.Precision;
+import util.RolloutBuffer;
 import util.Transition;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 public class PPOActor {
     private int stateDim;
     private int actionDim;
-    private double[][] weights; // shape: [actionDim x stateDim]
-    private double[] biases;    // shape: [actionDim]
+    private SoftmaxPolicy policy; // softmax over the logits of a Model with flat parameters
+    private PolicyPublisher publisher; // immutable snapshots for concurrent inference
+    private double[] dLogits;    // workspace for the backward pass
+    private double[] probs;      // workspace for selectAction and updateBatch
+    // Row-major [batch x dim] workspaces for mini-batch updates, grown on demand.
+    private double[] batchStates = new double[0];
+    private float[] floatBatchStates = new float[0];
+    private double[] batchProbs = new double[0];
+    private double[] batchDLogits = new double[0];
+    private double[] gradient; // float policies sum the mini-batch gradient here before the step
     private double learningRate;
     private Random random;
 
     public PPOActor(int stateDim, int actionDim, double learningRate) {
+        this(stateDim, actionDim, learningRate, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear actor whose parameters are stored with the given precision; a float actor
+     * is trained on rollouts stored as float.
+     */
+    public PPOActor(int stateDim, int actionDim, double learningRate, Precision precision) {
         this.stateDim = stateDim;
         this.actionDim = actionDim;
         this.learningRate = learningRate;
         this.random = new Random();
 
-        weights = new double[actionDim][stateDim];
-        biases = new double[actionDim];
         // Initialize weights with small random values.
-        for (int i = 0; i < actionDim; i++) {
-            for (int j = 0; j < stateDim; j++) {
-                weights[i][j] = (random.nextDouble() - 0.5) * 0.1;
-            }
-            biases[i] = 0.0;
-        }
+        policy = new SoftmaxPolicy(stateDim, actionDim, random, precision);
+        probs = new double[actionDim];
+        dLogits = new double[actionDim];
+        publisher = new PolicyPublisher(policy);
     }
 
-    // Compute logits = W * state + b, then apply softmax to get action probabilities.
-    public double[] forward(double[] state) {
-        double[] logits = new double[actionDim];
-        for (int i = 0; i < actionDim; i++) {
-            double sum = biases[i];
-            for (int j = 0; j < stateDim; j++) {
-                sum += weights[i][j] * state[j];
-            }
-            logits[i] = sum;
-        }
-        return softmax(logits);
+    /**
+     * Creates an actor whose logits are computed by the given model (for example an {@link MLP}).
+     */
+    public PPOActor(Model model, double learningRate) {
+        this.stateDim = model.getInputDim();
+        this.actionDim = model.getOutputDim();
+        this.learningRate = learningRate;
+        this.random = new Random();
+        policy = new SoftmaxPolicy(model);
+        probs = new double[actionDim];
+        dLogits = new double[actionDim];
+        publisher = new PolicyPublisher(policy);
     }
 
-    private double[] softmax(double[] logits) {
-        double max = Double.NEGATIVE_INFINITY;
-        for (double l : logits) {
-            if (l > max) {
-                max = l;
-            }
-        }
-        double sum = 0.0;
-        double[] exp = new double[logits.length];
-        for (int i = 0; i < logits.length; i++) {
-            exp[i] = Math.exp(logits[i] - max);
-            sum += exp[i];
-        }
-        double[] probs = new double[logits.length];
-        for (int i = 0; i < logits.length; i++) {
-            probs[i] = exp[i] / sum;
-        }
-        return probs;
+    // Compute logits = W * state + b, then apply softmax to get action probabilities.
+    public double[] forward(double[] state) {
+        double[] out = new double[actionDim];
+        policy.forward(state, out);
+        return out;
     }
 
     /**
@@ -68,22 +71,22 @@ public class PPOActor {
      * Also stores the old log probability in the provided Transition.
      */
     public int selectAction(double[] state, Transition transition) {
-        double[] probs = forward(state);
-        double r = random.nextDouble();
-        double cumulative = 0.0;
-        int action = 0;
-        for (int i = 0; i < probs.length; i++) {
-            cumulative += probs[i];
-            if (r < cumulative) {
-                action = i;
-                break;
-            }
-        }
+        policy.forward(state, probs);
+        int action = SoftmaxPolicy.sample(probs, random);
         // Store the log probability for PPO's ratio calculation later.
         transition.oldLogProb = Math.log(probs[action]);
         return action;
     }
 
+    /**
+     * Selects an action based on the current policy and writes the action
+     * probabilities into probsOut; the old log probability is log(probsOut[action]).
+     */
+    public int selectAction(double[] state, double[] probsOut) {
+        policy.forward(state, probsOut);
+        return SoftmaxPolicy.sample(probsOut, random);
+    }
+
     /**
      * Update the actor's parameters using the PPO clipped surrogate objective.
      * For each transition in the batch:
@@ -95,7 +98,7 @@ public class PPOActor {
     public void updateBatch(List<Transition> batch, double clipEpsilon) {
         // Loop over each transition in the batch.
         for (Transition t : batch) {
-            double[] probs = forward(t.state);
+            policy.forward(t.state, probs);
             double newLogProb = Math.log(probs[t.action]);
             double ratio = Math.exp(newLogProb - t.oldLogProb);
             double unclipped = ratio * t.advantage;
@@ -107,14 +110,80 @@ public class PPOActor {
             // For a softmax policy, the gradient of log probability for the chosen action:
             //   ∇ log π(a|s) = one_hot(a) - probs.
             // We update each weight as: Δ = learningRate * surrogate * (indicator - prob).
+            policy.applyLogProbGradient(t.state, t.action, probs, learningRate * surrogate, dLogits);
+        }
+    }
+
+    /**
+     * Same update as {@link #updateBatch(List, double)} for the mini-batch of rollout rows
+     * indices[from, to). The mini-batch goes through the model as one matrix product and
+     * one step is taken on the gradient summed over it, so the per-sample learning rate
+     * keeps the same scale.
+     */
+    public void updateBatch(RolloutBuffer buffer, int[] indices, int from, int to, double clipEpsilon) {
+        int batchSize = to - from;
+        boolean isFloat = (buffer.getPrecision() == Precision.FLOAT);
+        if (batchProbs.length < batchSize * actionDim) {
+            batchProbs = new double[batchSize * actionDim];
+            batchDLogits = new double[batchSize * actionDim];
+        }
+        if (isFloat) {
+            if (floatBatchStates.length < batchSize * stateDim) {
+                floatBatchStates = new float[batchSize * stateDim];
+            }
+            buffer.gatherStates(indices, from, to, floatBatchStates);
+            policy.forwardBatch(policy.getFloatParameters(), floatBatchStates, 0, batchSize, batchProbs);
+        } else {
+            if (batchStates.length < batchSize * stateDim) {
+                batchStates = new double[batchSize * stateDim];
+            }
+            buffer.gatherStates(indices, from, to, batchStates);
+            policy.forwardBatch(batchStates, batchSize, batchProbs);
+        }
+        int[] actions = buffer.getActions();
+        double[] oldLogProbs = buffer.getLogProbs();
+        double[] advantages = buffer.getAdvantages();
+        for (int n = 0; n < batchSize; n++) {
+            int row = indices[from + n];
+            int action = actions[row];
+            int offset = n * actionDim;
+            double ratio = Math.exp(Math.log(batchProbs[offset + action]) - oldLogProbs[row]);
+            double clippedRatio = Math.min(Math.max(ratio, 1 - clipEpsilon), 1 + clipEpsilon);
+            double surrogate = Math.min(ratio * advantages[row], clippedRatio * advantages[row]);
             for (int i = 0; i < actionDim; i++) {
-                double indicator = (i == t.action) ? 1.0 : 0.0;
-                double gradCoefficient = surrogate * (indicator - probs[i]);
-                for (int j = 0; j < stateDim; j++) {
-                    weights[i][j] += learningRate * gradCoefficient * t.state[j];
-                }
-                biases[i] += learningRate * gradCoefficient;
+                batchDLogits[offset + i] = surrogate * (((i == action) ? 1.0 : 0.0) - batchProbs[offset + i]);
             }
         }
+        if (isFloat) {
+            // Float parameters cannot hold the batch sum, so it is reduced in double first.
+            if (gradient == null) {
+                gradient = new double[policy.getParameterDimension()];
+            }
+            Arrays.fill(gradient, 0.0);
+            policy.accumulateGradientBatch(policy.getFloatParameters(), floatBatchStates, 0, batchSize, batchDLogits,
+                    1.0, gradient);
+            policy.getParameterStorage().addScaled(learningRate, gradient);
+        } else {
+            policy.accumulateGradientBatch(batchStates, batchSize, batchDLogits, learningRate, policy.getParameters());
+        }
+    }
+
+    /**
+     * Publishes the current parameters to readers of {@link #getSnapshot()}.
+     * Call from the training thread, between updates.
+     */
+    public PolicySnapshot publish() {
+        return publisher.publish();
+    }
+
+    /**
+     * @return the latest published parameters, safe to use from any thread while training continues.
+     */
+    public PolicySnapshot getSnapshot() {
+        return publisher.current();
+    }
+
+    public SoftmaxPolicy getPolicy() {
+        return policy;
     }
 }
@@ -1,5 +1,7 @@
 package A2C;
 
+import linalg.Precision;
+import util.RolloutBuffer;
 import util.Transition;
 
 import java.util.List;
@@ -7,40 +9,76 @@ import java.util.Random;
 
 public class PPOCritic {
     private int stateDim;
-    private double[] weights; // shape: [stateDim]
-    private double bias;
+    private ValueFunction valueFunction; // weights [stateDim] and bias in one flat vector
     private double learningRate;
     private Random random;
+    private double[] batchStates = new double[0];  // workspaces for mini-batch updates
+    private float[] floatBatchStates = new float[0];
+    private double[] batchTargets = new double[0];
 
     public PPOCritic(int stateDim, double learningRate) {
+        this(stateDim, learningRate, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear critic whose parameters are stored with the given precision.
+     */
+    public PPOCritic(int stateDim, double learningRate, Precision precision) {
         this.stateDim = stateDim;
         this.learningRate = learningRate;
         this.random = new Random();
-        weights = new double[stateDim];
-        for (int i = 0; i < stateDim; i++) {
-            weights[i] = (random.nextDouble() - 0.5) * 0.1;
-        }
-        bias = 0.0;
+        valueFunction = new ValueFunction(stateDim, random, precision);
+    }
+
+    /**
+     * Creates a critic whose value is computed by the given single-output model (for example an {@link MLP}).
+     */
+    public PPOCritic(Model model, double learningRate) {
+        this.stateDim = model.getInputDim();
+        this.learningRate = learningRate;
+        this.random = new Random();
+        valueFunction = new ValueFunction(model);
     }
 
     // Compute the state value: v = w^T * state + b.
     public double value(double[] state) {
-        double v = bias;
-        for (int i = 0; i < stateDim; i++) {
-            v += weights[i] * state[i];
-        }
-        return v;
+        return valueFunction.value(state);
     }
 
     // Update the critic by performing a gradient step on the value loss (squared error).
     public void updateBatch(List<Transition> batch) {
         for (Transition t : batch) {
-            double v = value(t.state);
-            double error = t.returnG - v;
-            for (int i = 0; i < stateDim; i++) {
-                weights[i] += learningRate * error * t.state[i];
+            valueFunction.update(t.state, t.returnG, learningRate);
+        }
+    }
+
+    // Gradient step on the value loss summed over the rollout rows indices[from, to).
+    public void updateBatch(RolloutBuffer buffer, int[] indices, int from, int to) {
+        int batchSize = to - from;
+        boolean isFloat = (buffer.getPrecision() == Precision.FLOAT);
+        if (batchTargets.length < batchSize) {
+            batchTargets = new double[batchSize];
+        }
+        double[] returns = buffer.getReturns();
+        for (int n = 0; n < batchSize; n++) {
+            batchTargets[n] = returns[indices[from + n]];
+        }
+        if (isFloat) {
+            if (floatBatchStates.length < batchSize * stateDim) {
+                floatBatchStates = new float[batchSize * stateDim];
+            }
+            buffer.gatherStates(indices, from, to, floatBatchStates);
+            valueFunction.updateBatch(floatBatchStates, batchTargets, batchSize, learningRate);
+        } else {
+            if (batchStates.length < batchSize * stateDim) {
+                batchStates = new double[batchSize * stateDim];
             }
-            bias += learningRate * error;
+            buffer.gatherStates(indices, from, to, batchStates);
+            valueFunction.updateBatch(batchStates, batchTargets, batchSize, learningRate);
         }
     }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
+    }
 }
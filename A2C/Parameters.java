@@ -0,0 +1,148 @@
+package A2C;
+
+import linalg.Precision;
+
+/**
+ * Contiguous storage for all trainable parameters of a model.
+ * Every layer owns a fixed range [offset, offset + count) of one flat array
+ * and reads and writes it in place, so the layer's weights are a zero-copy view of
+ * the flat vector. Flattening the model is therefore a single System.arraycopy
+ * (or no copy at all, via {@link #values()}).
+ * <p>
+ * The array is a double[] by default, or a float[] ({@link #floatValues()}) with
+ * {@link Precision#FLOAT}. The copying methods and {@link #addScaled} work with
+ * flat double vectors in either precision, rounding on the way in.
+ */
+public class Parameters {
+    private final Precision precision;
+    private final double[] values;     // null with Precision.FLOAT
+    private final float[] floatValues; // null with Precision.DOUBLE
+    private final int size;
+    private int allocated;
+
+    public Parameters(int size) {
+        this(size, Precision.DOUBLE);
+    }
+
+    public Parameters(int size, Precision precision) {
+        this.precision = precision;
+        this.size = size;
+        this.values = (precision == Precision.DOUBLE) ? new double[size] : null;
+        this.floatValues = (precision == Precision.FLOAT) ? new float[size] : null;
+    }
+
+    /**
+     * Reserves the next count parameters for a layer.
+     * @return the offset of the reserved range in {@link #values()} or {@link #floatValues()}.
+     */
+    public int allocate(int count) {
+        if (allocated + count > size) {
+            throw new IllegalStateException("Error: parameter storage of size " + size + " is full");
+        }
+        int offset = allocated;
+        allocated += count;
+        return offset;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the backing array; writes to it change the model directly.
+     * @throws IllegalStateException if the parameters are stored as float.
+     */
+    public double[] values() {
+        if (values == null) {
+            throw new IllegalStateException("Error: the parameters are stored as float; use floatValues()");
+        }
+        return values;
+    }
+
+    /**
+     * @return the backing array of float parameters; writes to it change the model directly.
+     * @throws IllegalStateException if the parameters are stored as double.
+     */
+    public float[] floatValues() {
+        if (floatValues == null) {
+            throw new IllegalStateException("Error: the parameters are stored as double; use values()");
+        }
+        return floatValues;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of all parameters as one flat double vector.
+     */
+    public double[] toArray() {
+        double[] out = new double[size];
+        copyTo(out);
+        return out;
+    }
+
+    /**
+     * Copies all parameters into the supplied array.
+     */
+    public void copyTo(double[] out) {
+        if (values != null) {
+            System.arraycopy(values, 0, out, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                out[i] = floatValues[i];
+            }
+        }
+    }
+
+    /**
+     * Replaces all parameters with the contents of a flat vector, rounded to float if they are stored as float.
+     */
+    public void copyFrom(double[] theta) {
+        checkLength(theta.length);
+        if (values != null) {
+            System.arraycopy(theta, 0, values, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                floatValues[i] = (float) theta[i];
+            }
+        }
+    }
+
+    /**
+     * Replaces all parameters with the contents of a flat float vector.
+     */
+    public void copyFrom(float[] theta) {
+        checkLength(theta.length);
+        if (floatValues != null) {
+            System.arraycopy(theta, 0, floatValues, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                values[i] = theta[i];
+            }
+        }
+    }
+
+    /**
+     * Adds alpha * delta to the parameters, for example a gradient step with a double gradient.
+     * Float parameters are updated in double and rounded once.
+     */
+    public void addScaled(double alpha, double[] delta) {
+        if (values != null) {
+            for (int i = 0; i < size; i++) {
+                values[i] += alpha * delta[i];
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                floatValues[i] = (float) (floatValues[i] + alpha * delta[i]);
+            }
+        }
+    }
+
+    private void checkLength(int length) {
+        if (length != size) {
+            throw new IllegalArgumentException("Error: expected " + size + " parameters but got " + length);
+        }
+    }
+}
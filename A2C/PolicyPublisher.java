@@ -0,0 +1,54 @@
+package A2C;
+
+import linalg.Precision;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Read-copy-update publication of a training {@link SoftmaxPolicy} to concurrent readers.
+ * The learner keeps updating the policy's parameters in place; {@link #publish} copies them
+ * into a fresh back buffer, wraps it in a {@link PolicySnapshot} and swaps it in with one
+ * atomic reference write. Readers call {@link #current} and use the snapshot they got for
+ * as long as they like: it never changes, so they need no locks and always see one
+ * consistent model. An old snapshot is reclaimed by the garbage collector once the last
+ * reader drops it, which stands in for the grace period of RCU.
+ */
+public class PolicyPublisher {
+    private final SoftmaxPolicy policy;
+    private final AtomicReference<PolicySnapshot> current;
+
+    /**
+     * Creates a publisher whose current snapshot holds the policy's parameters as of now.
+     */
+    public PolicyPublisher(SoftmaxPolicy policy) {
+        this.policy = policy;
+        this.current = new AtomicReference<>(snapshot(0));
+    }
+
+    /**
+     * Publishes the policy's current parameters. Call from the thread that updates the
+     * policy, between updates; publications from several threads at once are not ordered.
+     * @return the new snapshot.
+     */
+    public PolicySnapshot publish() {
+        long version = current.get().getVersion() + 1;
+        PolicySnapshot snapshot = snapshot(version);
+        current.set(snapshot);
+        return snapshot;
+    }
+
+    // Copies the parameters in their own precision.
+    private PolicySnapshot snapshot(long version) {
+        if (policy.getPrecision() == Precision.FLOAT) {
+            return new PolicySnapshot(policy, policy.getFloatParameters().clone(), version);
+        }
+        return new PolicySnapshot(policy, policy.getParameters().clone(), version);
+    }
+
+    /**
+     * @return the latest published snapshot.
+     */
+    public PolicySnapshot current() {
+        return current.get();
+    }
+}
@@ -0,0 +1,93 @@
+package A2C;
+
+import java.util.Random;
+
+/**
+ * An immutable copy of a {@link SoftmaxPolicy}'s parameters, as published by a
+ * {@link PolicyPublisher}. The parameters are never written after construction, and the
+ * model keeps its forward-pass buffers per thread, so any number of threads can call
+ * {@link #forward} and {@link #selectAction} on the same snapshot without locks while
+ * the policy it was taken from keeps training. The copy has the precision of the policy.
+ */
+public final class PolicySnapshot {
+    private final SoftmaxPolicy policy; // supplies the model; its own parameters are never read
+    private final double[] theta;     // null for a float policy
+    private final float[] floatTheta; // null for a double policy
+    private final long version;
+
+    PolicySnapshot(SoftmaxPolicy policy, double[] theta, long version) {
+        this.policy = policy;
+        this.theta = theta;
+        this.floatTheta = null;
+        this.version = version;
+    }
+
+    PolicySnapshot(SoftmaxPolicy policy, float[] theta, long version) {
+        this.policy = policy;
+        this.theta = null;
+        this.floatTheta = theta;
+        this.version = version;
+    }
+
+    /**
+     * Computes the action probabilities into probsOut.
+     */
+    public void forward(double[] state, double[] probsOut) {
+        if (floatTheta != null) {
+            policy.forward(floatTheta, state, probsOut);
+        } else {
+            policy.forward(theta, state, probsOut);
+        }
+    }
+
+    /**
+     * Computes the action probabilities for a batch of states stored row-major
+     * ([batch x stateDim]) into probsOut ([batch x actionDim]).
+     */
+    public void forwardBatch(double[] states, int batch, double[] probsOut) {
+        if (floatTheta != null) {
+            policy.forwardBatch(floatTheta, states, 0, batch, probsOut);
+        } else {
+            policy.forwardBatch(theta, states, batch, probsOut);
+        }
+    }
+
+    /**
+     * Samples an action, leaving the action probabilities in probsOut.
+     * @param random a generator owned by the calling thread.
+     */
+    public int selectAction(double[] state, double[] probsOut, Random random) {
+        forward(state, probsOut);
+        return SoftmaxPolicy.sample(probsOut, random);
+    }
+
+    /**
+     * @return how many times the policy had been published when this snapshot was taken,
+     *         counting this one; 0 for the snapshot taken by the publisher's constructor.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a copy of the parameters, widened to double for a float policy.
+     */
+    public double[] getParameters() {
+        if (floatTheta != null) {
+            double[] out = new double[floatTheta.length];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = floatTheta[i];
+            }
+            return out;
+        }
+        return theta.clone();
+    }
+
+    public int getStateDim() {
+        return policy.getStateDim();
+    }
+
+    public int getActionDim() {
+        return policy.getActionDim();
+    }
+}
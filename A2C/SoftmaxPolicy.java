@@ -0,0 +1,267 @@
+package A2C;
+
+import linalg.Precision;
+
+import java.util.Random;
+
+/**
+ * A softmax policy, pi(a|s) = softmax(f(s)), over a {@link Model} that outputs one logit per action.
+ * This is the forward/backward implementation shared by {@link Actor}, {@link PPOActor}
+ * and {@link TRPOActor}. With the default linear model, f(s) = W * s + b with W stored
+ * row-major ([actionDim x stateDim]) followed by b in one flat parameter vector.
+ * <p>
+ * A policy over a model with float parameters ({@link Precision#FLOAT}) is used through
+ * the float[] overloads; the methods on the policy's own parameters work in either precision.
+ */
+public class SoftmaxPolicy {
+    private final Model model;
+    private final int actionDim;
+
+    /**
+     * Creates a linear softmax policy with small random weights.
+     */
+    public SoftmaxPolicy(int stateDim, int actionDim, Random random) {
+        this(stateDim, actionDim, random, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear softmax policy with small random weights stored with the given precision.
+     */
+    public SoftmaxPolicy(int stateDim, int actionDim, Random random, Precision precision) {
+        this(new MLP(stateDim, new int[0], actionDim, Activation.IDENTITY, random, precision));
+    }
+
+    public SoftmaxPolicy(Model model) {
+        this.model = model;
+        this.actionDim = model.getOutputDim();
+    }
+
+    /**
+     * Computes the action probabilities into probsOut using the model's own parameters.
+     */
+    public void forward(double[] state, double[] probsOut) {
+        model.forward(state, probsOut);
+        softmaxInPlace(probsOut, actionDim);
+    }
+
+    /**
+     * Computes the action probabilities using an alternative flat parameter vector
+     * laid out like {@link #getParameters()}, without touching the model.
+     */
+    public void forward(double[] theta, double[] state, double[] probsOut) {
+        // The logits are written into probsOut and normalized in place.
+        model.forward(theta, state, probsOut);
+        softmaxInPlace(probsOut, actionDim);
+    }
+
+    /**
+     * {@link #forward(double[], double[], double[])} with float parameters.
+     */
+    public void forward(float[] theta, double[] state, double[] probsOut) {
+        model.forward(theta, state, probsOut);
+        softmaxInPlace(probsOut, actionDim);
+    }
+
+    /**
+     * Computes the action probabilities for a batch of states stored row-major
+     * ([batch x stateDim]) into probsOut ([batch x actionDim]).
+     */
+    public void forwardBatch(double[] states, int batch, double[] probsOut) {
+        if (getPrecision() == Precision.FLOAT) {
+            forwardBatch(model.getFloatParameters(), states, 0, batch, probsOut);
+        } else {
+            forwardBatch(model.getParameters(), states, batch, probsOut);
+        }
+    }
+
+    public void forwardBatch(double[] theta, double[] states, int batch, double[] probsOut) {
+        forwardBatch(theta, states, 0, batch, probsOut);
+    }
+
+    /**
+     * Computes the action probabilities for rows [first, first + batch) of states.
+     */
+    public void forwardBatch(double[] theta, double[] states, int first, int batch, double[] probsOut) {
+        model.forwardBatch(theta, states, first, batch, probsOut);
+        softmaxRows(probsOut, batch);
+    }
+
+    /**
+     * {@link #forwardBatch(double[], double[], int, int, double[])} with float parameters
+     * and float states, for example those of a rollout stored as float.
+     */
+    public void forwardBatch(float[] theta, float[] states, int first, int batch, double[] probsOut) {
+        model.forwardBatch(theta, states, first, batch, probsOut);
+        softmaxRows(probsOut, batch);
+    }
+
+    /**
+     * {@link #forwardBatch(double[], double[], int, int, double[])} with float parameters;
+     * for inference only, since no backward pass can follow it.
+     */
+    public void forwardBatch(float[] theta, double[] states, int first, int batch, double[] probsOut) {
+        model.forwardBatch(theta, states, first, batch, probsOut);
+        softmaxRows(probsOut, batch);
+    }
+
+    private void softmaxRows(double[] values, int batch) {
+        for (int n = 0; n < batch; n++) {
+            softmaxInPlace(values, n * actionDim, actionDim);
+        }
+    }
+
+    static void softmaxInPlace(double[] values, int n) {
+        softmaxInPlace(values, 0, n);
+    }
+
+    static void softmaxInPlace(double[] values, int offset, int n) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = offset; i < offset + n; i++) {
+            if (values[i] > max) {
+                max = values[i];
+            }
+        }
+        double sum = 0.0;
+        for (int i = offset; i < offset + n; i++) {
+            values[i] = Math.exp(values[i] - max);
+            sum += values[i];
+        }
+        for (int i = offset; i < offset + n; i++) {
+            values[i] /= sum;
+        }
+    }
+
+    /**
+     * Adds scale * grad log pi(action|state) to grad, given the probabilities at state.
+     * For a softmax policy, d log pi(a|s) / d logit_i = one_hot(a)_i - probs_i.
+     * Passing {@link #getParameters()} as grad applies a gradient ascent step in place.
+     * Must follow {@link #forward} on the same state and thread.
+     *
+     * @param dLogits workspace of length actionDim, overwritten.
+     * @param grad a flat vector laid out like {@link #getParameters()}.
+     */
+    public void accumulateLogProbGradient(double[] state, int action, double[] probs, double scale,
+                                          double[] dLogits, double[] grad) {
+        for (int i = 0; i < actionDim; i++) {
+            dLogits[i] = ((i == action) ? 1.0 : 0.0) - probs[i];
+        }
+        model.backward(state, dLogits, scale, grad);
+    }
+
+    /**
+     * Adds scale * grad log pi(action|state) to the policy's own parameters, in their precision.
+     * Must follow {@link #forward} on the same state and thread.
+     *
+     * @param dLogits workspace of length actionDim, overwritten.
+     */
+    public void applyLogProbGradient(double[] state, int action, double[] probs, double scale, double[] dLogits) {
+        if (getPrecision() == Precision.FLOAT) {
+            for (int i = 0; i < actionDim; i++) {
+                dLogits[i] = ((i == action) ? 1.0 : 0.0) - probs[i];
+            }
+            model.backward(state, dLogits, scale, model.getFloatParameters());
+        } else {
+            accumulateLogProbGradient(state, action, probs, scale, dLogits, model.getParameters());
+        }
+    }
+
+    /**
+     * Backward pass: adds the gradient of a loss with respect to the parameters to grad,
+     * given the gradient of that loss with respect to the logits at state.
+     * Must follow {@link #forward} on the same state and thread.
+     *
+     * @param dLogits gradient of the loss with respect to each logit.
+     * @param grad a flat vector laid out like {@link #getParameters()}.
+     */
+    public void accumulateGradient(double[] state, double[] dLogits, double scale, double[] grad) {
+        model.backward(state, dLogits, scale, grad);
+    }
+
+    /**
+     * Batched {@link #accumulateGradient}: dLogits is [batch x actionDim].
+     * Must follow {@link #forwardBatch} on the same states and thread.
+     */
+    public void accumulateGradientBatch(double[] states, int batch, double[] dLogits, double scale, double[] grad) {
+        model.backwardBatch(states, batch, dLogits, scale, grad);
+    }
+
+    /**
+     * {@link #accumulateGradientBatch} for rows [first, first + batch) of states.
+     */
+    public void accumulateGradientBatch(double[] states, int first, int batch, double[] dLogits, double scale,
+                                        double[] grad) {
+        model.backwardBatch(states, first, batch, dLogits, scale, grad);
+    }
+
+    /**
+     * {@link #accumulateGradientBatch} through an alternative flat parameter vector.
+     * Must follow {@link #forwardBatch(double[], double[], int, int, double[])} with the same theta.
+     */
+    public void accumulateGradientBatch(double[] theta, double[] states, int first, int batch, double[] dLogits,
+                                        double scale, double[] grad) {
+        model.backwardBatch(theta, states, first, batch, dLogits, scale, grad);
+    }
+
+    /**
+     * {@link #accumulateGradientBatch(double[], double[], int, int, double[], double, double[])} with
+     * float parameters and states; the gradient is accumulated in double.
+     * Must follow {@link #forwardBatch(float[], float[], int, int, double[])} with the same theta.
+     */
+    public void accumulateGradientBatch(float[] theta, float[] states, int first, int batch, double[] dLogits,
+                                        double scale, double[] grad) {
+        model.backwardBatch(theta, states, first, batch, dLogits, scale, grad);
+    }
+
+    /**
+     * Samples an action index from a probability distribution.
+     */
+    public static int sample(double[] probs, Random random) {
+        double r = random.nextDouble();
+        double cumulative = 0.0;
+        for (int i = 0; i < probs.length; i++) {
+            cumulative += probs[i];
+            if (r < cumulative) {
+                return i;
+            }
+        }
+        return probs.length - 1; // fallback
+    }
+
+    /**
+     * @return the flat parameter vector backing this policy (zero-copy).
+     */
+    public double[] getParameters() {
+        return model.getParameters();
+    }
+
+    /**
+     * @return the flat float parameter vector backing this policy (zero-copy).
+     */
+    public float[] getFloatParameters() {
+        return model.getFloatParameters();
+    }
+
+    public Precision getPrecision() {
+        return model.getPrecision();
+    }
+
+    public Parameters getParameterStorage() {
+        return model.getParameterStorage();
+    }
+
+    public int getParameterDimension() {
+        return model.getParameterStorage().size();
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    public int getStateDim() {
+        return model.getInputDim();
+    }
+
+    public int getActionDim() {
+        return actionDim;
+    }
+}
@@ -1,141 +1,161 @@
 package A2C;
 
+import linalg.ParallelReducer;
+import linalg.Precision;
+import util.RolloutBuffer;
+import util.Transition;
+
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 public class TRPOActor {
+    private static final int CHUNK_ROWS = 256; // rows per parallel task in the batch reductions
+    private static final double FISHER_DAMPING = 1e-3;
+
     private int stateDim;
     private int actionDim;
-    public double[][] weights; // policy parameters (shape: [actionDim x stateDim])
-    public double[] biases;    // biases for each action
+    private SoftmaxPolicy policy; // softmax over the logits of a Model with flat parameters
+    // Row-major [batch x dim] copies of a List<Transition> batch, grown on demand.
+    private final Batch packed = new Batch();
+    // Batch sums are split into chunks reduced in a fixed order (see ParallelReducer); each
+    // worker thread has its own [CHUNK_ROWS x actionDim] probability, logit-gradient and
+    // old-probability buffers.
+    private final ParallelReducer reducer = new ParallelReducer(CHUNK_ROWS);
+    private final ThreadLocal<double[][]> chunkBuffers;
     private Random random;
 
+    // The rows of a batch in the precision of the policy: either the double or the float
+    // states and old probabilities are set.
+    private static final class Batch {
+        double[] states;
+        float[] floatStates;
+        double[] oldProbs;
+        float[] floatOldProbs;
+        int[] actions;
+        double[] advantages;
+        int size;
+    }
+
     public TRPOActor(int stateDim, int actionDim) {
+        this(stateDim, actionDim, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear actor whose parameters are stored with the given precision; a float actor
+     * is trained on rollouts stored as float.
+     */
+    public TRPOActor(int stateDim, int actionDim, Precision precision) {
         this.stateDim = stateDim;
         this.actionDim = actionDim;
         this.random = new Random();
-        weights = new double[actionDim][stateDim];
-        biases = new double[actionDim];
         // Initialize weights and biases to small random values.
-        for (int i = 0; i < actionDim; i++) {
-            for (int j = 0; j < stateDim; j++) {
-                weights[i][j] = (random.nextDouble() - 0.5) * 0.1;
-            }
-            biases[i] = 0.0;
-        }
+        policy = new SoftmaxPolicy(stateDim, actionDim, random, precision);
+        chunkBuffers = ThreadLocal.withInitial(() -> new double[3][CHUNK_ROWS * actionDim]);
     }
 
-    // Forward pass: compute logits = W * state + b, then softmax.
-    public double[] forward(double[] state) {
-        double[] logits = new double[actionDim];
-        for (int i = 0; i < actionDim; i++) {
-            double sum = biases[i];
-            for (int j = 0; j < stateDim; j++) {
-                sum += weights[i][j] * state[j];
-            }
-            logits[i] = sum;
-        }
-        return softmax(logits);
+    /**
+     * Creates an actor whose logits are computed by the given model (for example an {@link MLP}).
+     */
+    public TRPOActor(Model model) {
+        this.stateDim = model.getInputDim();
+        this.actionDim = model.getOutputDim();
+        this.random = new Random();
+        policy = new SoftmaxPolicy(model);
+        chunkBuffers = ThreadLocal.withInitial(() -> new double[3][CHUNK_ROWS * actionDim]);
     }
 
-    private double[] softmax(double[] logits) {
-        double max = Double.NEGATIVE_INFINITY;
-        for (double l : logits) {
-            if (l > max) max = l;
-        }
-        double sum = 0.0;
-        double[] exp = new double[actionDim];
-        for (int i = 0; i < actionDim; i++) {
-            exp[i] = Math.exp(logits[i] - max);
-            sum += exp[i];
-        }
-        double[] probs = new double[actionDim];
-        for (int i = 0; i < actionDim; i++) {
-            probs[i] = exp[i] / sum;
-        }
-        return probs;
+    // Forward pass: compute logits = W * state + b, then softmax.
+    public double[] forward(double[] state) {
+        double[] out = new double[actionDim];
+        policy.forward(state, out);
+        return out;
     }
 
     // Select an action and store the old distribution in the transition.
     public int selectAction(double[] state, Transition transition) {
         double[] probs = forward(state);
-        transition.oldProbs = probs.clone();
-        double r = random.nextDouble();
-        double cumulative = 0.0;
-        int action = 0;
-        for (int i = 0; i < probs.length; i++) {
-            cumulative += probs[i];
-            if (r < cumulative) {
-                action = i;
-                break;
-            }
-        }
+        transition.oldProbs = probs;
+        int action = SoftmaxPolicy.sample(probs, random);
         transition.oldLogProb = Math.log(probs[action] + 1e-8);
         return action;
     }
 
+    // Select an action and write the current distribution into probsOut.
+    public int selectAction(double[] state, double[] probsOut) {
+        policy.forward(state, probsOut);
+        return SoftmaxPolicy.sample(probsOut, random);
+    }
+
     // Flatten the actor parameters (first weights, then biases) into a 1D vector.
     public double[] flattenParameters() {
-        int total = actionDim * stateDim + actionDim;
-        double[] theta = new double[total];
-        int index = 0;
-        for (int i = 0; i < actionDim; i++) {
-            for (int j = 0; j < stateDim; j++) {
-                theta[index++] = weights[i][j];
-            }
-        }
-        for (int i = 0; i < actionDim; i++) {
-            theta[index++] = biases[i];
-        }
-        return theta;
+        return policy.getParameterStorage().toArray();
     }
 
     // Set parameters from a flattened parameter vector.
     public void setParameters(double[] theta) {
-        int index = 0;
-        for (int i = 0; i < actionDim; i++) {
-            for (int j = 0; j < stateDim; j++) {
-                weights[i][j] = theta[index++];
-            }
-        }
-        for (int i = 0; i < actionDim; i++) {
-            biases[i] = theta[index++];
-        }
+        policy.getParameterStorage().copyFrom(theta);
+    }
+
+    // Set parameters from a flattened float parameter vector.
+    public void setParameters(float[] theta) {
+        policy.getParameterStorage().copyFrom(theta);
+    }
+
+    // Returns the live flat parameter vector (no copy); writes change the policy.
+    public double[] getParameters() {
+        return policy.getParameters();
+    }
+
+    // Returns the live flat float parameter vector of a float policy (no copy).
+    public float[] getFloatParameters() {
+        return policy.getFloatParameters();
     }
 
     // Returns the dimensionality of the parameter vector.
     public int getParameterDimension() {
-        return actionDim * stateDim + actionDim;
+        return policy.getParameterDimension();
+    }
+
+    public SoftmaxPolicy getPolicy() {
+        return policy;
     }
 
     // Compute the (averaged) policy gradient over a batch.
     // For a softmax policy, the gradient of log π(a|s) is (one_hot(a) - probs)*state.
-    // We then weight by the advantage.
+    // We then weight by the advantage. Each chunk of the batch goes through the model as
+    // one matrix product, in parallel.
     public double[] computePolicyGradient(List<Transition> batch) {
-        int dim = getParameterDimension();
-        double[] grad = new double[dim];
-        int batchSize = batch.size();
-        for (Transition t : batch) {
-            double[] probs = forward(t.state);
-            int index = 0;
-            for (int i = 0; i < actionDim; i++) {
-                for (int j = 0; j < stateDim; j++) {
-                    double indicator = (i == t.action) ? 1.0 : 0.0;
-                    double g = (indicator - probs[i]) * t.state[j] * t.advantage;
-                    grad[index++] += g;
+        return computePolicyGradient(pack(batch));
+    }
+
+    // Same as above for all rows recorded in a rollout buffer, read in place.
+    public double[] computePolicyGradient(RolloutBuffer buffer) {
+        return computePolicyGradient(rows(buffer));
+    }
+
+    private double[] computePolicyGradient(Batch batch) {
+        int batchSize = batch.size;
+        int[] actions = batch.actions;
+        double[] advantages = batch.advantages;
+        double[] grad = new double[getParameterDimension()];
+        // Average over the batch.
+        double scale = 1.0 / batchSize;
+        reducer.reduce(batchSize, grad.length, (first, count, partial) -> {
+            double[][] buffers = chunkBuffers.get();
+            double[] probs = buffers[0];
+            double[] dLogits = buffers[1];
+            forwardChunk(batch, first, count, probs);
+            for (int n = 0; n < count; n++) {
+                int row = n * actionDim;
+                int action = actions[first + n];
+                double advantage = advantages[first + n];
+                for (int i = 0; i < actionDim; i++) {
+                    dLogits[row + i] = advantage * (((i == action) ? 1.0 : 0.0) - probs[row + i]);
                 }
             }
-            // Gradients for biases.
-            for (int i = 0; i < actionDim; i++) {
-                double indicator = (i == t.action) ? 1.0 : 0.0;
-                double g = (indicator - probs[i]) * t.advantage;
-                grad[index++] += g;
-            }
-        }
-        // Average over the batch.
-        for (int i = 0; i < grad.length; i++) {
-            grad[i] /= batchSize;
-        }
+            backwardChunk(batch, first, count, dLogits, scale, partial);
+        }, grad);
         return grad;
     }
 
@@ -144,70 +164,261 @@ public class TRPOActor {
     // KL(old || new) = sum_i oldProbs[i] * (log(oldProbs[i]) - log(newProbs[i])).
     // We approximate its gradient with respect to the parameters.
     public double[] computeKLGradient(List<Transition> batch) {
-        int dim = getParameterDimension();
-        double[] grad = new double[dim];
-        int batchSize = batch.size();
-        for (Transition t : batch) {
-            double[] newProbs = forward(t.state);
-            int index = 0;
-            for (int i = 0; i < actionDim; i++) {
-                // For the weights of action i.
-                for (int j = 0; j < stateDim; j++) {
-                    // A simplified approximation: error = newProbs[i] - oldProbs[i].
-                    double error = newProbs[i] - t.oldProbs[i];
-                    grad[index++] += error * t.state[j];
-                }
-            }
-            // For biases.
-            for (int i = 0; i < actionDim; i++) {
-                double error = newProbs[i] - t.oldProbs[i];
-                grad[index++] += error;
-            }
-        }
+        return computeKLGradient(pack(batch));
+    }
+
+    public double[] computeKLGradient(RolloutBuffer buffer) {
+        return computeKLGradient(rows(buffer));
+    }
+
+    private double[] computeKLGradient(Batch batch) {
+        int batchSize = batch.size;
+        double[] grad = new double[getParameterDimension()];
         // Average over batch.
-        for (int i = 0; i < grad.length; i++) {
-            grad[i] /= batchSize;
-        }
+        double scale = 1.0 / batchSize;
+        reducer.reduce(batchSize, grad.length, (first, count, partial) -> {
+            double[][] buffers = chunkBuffers.get();
+            double[] probs = buffers[0];
+            double[] error = buffers[1];
+            double[] oldProbs = buffers[2];
+            forwardChunk(batch, first, count, probs);
+            oldProbsChunk(batch, first, count, oldProbs);
+            // A simplified approximation: error = newProbs[i] - oldProbs[i].
+            for (int k = 0; k < count * actionDim; k++) {
+                error[k] = probs[k] - oldProbs[k];
+            }
+            backwardChunk(batch, first, count, error, scale, partial);
+        }, grad);
         return grad;
     }
 
     // Compute the average KL divergence over the batch.
     public double computeAverageKL(List<Transition> batch) {
+        return computeAverageKL(pack(batch));
+    }
+
+    public double computeAverageKL(RolloutBuffer buffer) {
+        return computeAverageKL(rows(buffer));
+    }
+
+    // Average KL divergence with the policy evaluated at theta instead of the actor's own
+    // parameters; the new probabilities are written to probsOut ([rows x actionDim]).
+    // Uses no shared workspace, so it may be called concurrently for different theta.
+    public double computeAverageKL(RolloutBuffer buffer, double[] theta, double[] probsOut) {
+        int batchSize = buffer.size();
+        policy.forwardBatch(theta, buffer.getStates(), batchSize, probsOut);
+        return klSum(buffer.getProbs(), 0, probsOut, batchSize) / batchSize;
+    }
+
+    // computeAverageKL(RolloutBuffer, double[], double[]) for a float policy and rollout.
+    public double computeAverageKL(RolloutBuffer buffer, float[] theta, double[] probsOut) {
+        int batchSize = buffer.size();
+        policy.forwardBatch(theta, buffer.getFloatStates(), 0, batchSize, probsOut);
+        float[] oldProbs = buffer.getFloatProbs();
         double klSum = 0.0;
-        for (Transition t : batch) {
-            double[] newProbs = forward(t.state);
-            for (int i = 0; i < actionDim; i++) {
-                klSum += t.oldProbs[i] * (Math.log(t.oldProbs[i] + 1e-8) - Math.log(newProbs[i] + 1e-8));
+        for (int k = 0; k < batchSize * actionDim; k++) {
+            double oldProb = oldProbs[k];
+            klSum += oldProb * (Math.log(oldProb + 1e-8) - Math.log(probsOut[k] + 1e-8));
+        }
+        return klSum / batchSize;
+    }
+
+    private double computeAverageKL(Batch batch) {
+        double klSum = reducer.sum(batch.size, (first, count, partial) -> {
+            double[][] buffers = chunkBuffers.get();
+            double[] probs = buffers[0];
+            double[] oldProbs = buffers[2];
+            forwardChunk(batch, first, count, probs);
+            oldProbsChunk(batch, first, count, oldProbs);
+            partial[0] = klSum(oldProbs, 0, probs, count);
+        });
+        return klSum / batch.size;
+    }
+
+    // Sum of KL(old || new) over count rows; oldProbs is read from row offset oldOffset / actionDim.
+    private double klSum(double[] oldProbs, int oldOffset, double[] newProbs, int count) {
+        double klSum = 0.0;
+        for (int k = 0; k < count * actionDim; k++) {
+            double oldProb = oldProbs[oldOffset + k];
+            klSum += oldProb * (Math.log(oldProb + 1e-8) - Math.log(newProbs[k] + 1e-8));
+        }
+        return klSum;
+    }
+
+    // Probabilities of rows [first, first + count) at the actor's own parameters.
+    private void forwardChunk(Batch batch, int first, int count, double[] probsOut) {
+        if (batch.floatStates != null) {
+            policy.forwardBatch(policy.getFloatParameters(), batch.floatStates, first, count, probsOut);
+        } else {
+            policy.forwardBatch(policy.getParameters(), batch.states, first, count, probsOut);
+        }
+    }
+
+    // Back-propagates dLogits of rows [first, first + count) after forwardChunk or a jvpBatch on them.
+    private void backwardChunk(Batch batch, int first, int count, double[] dLogits, double scale, double[] grad) {
+        if (batch.floatStates != null) {
+            policy.accumulateGradientBatch(policy.getFloatParameters(), batch.floatStates, first, count, dLogits,
+                    scale, grad);
+        } else {
+            policy.accumulateGradientBatch(batch.states, first, count, dLogits, scale, grad);
+        }
+    }
+
+    // Copies the old probabilities of rows [first, first + count) into out, widened to double.
+    private void oldProbsChunk(Batch batch, int first, int count, double[] out) {
+        int offset = first * actionDim;
+        if (batch.floatOldProbs != null) {
+            for (int k = 0; k < count * actionDim; k++) {
+                out[k] = batch.floatOldProbs[offset + k];
             }
+        } else {
+            System.arraycopy(batch.oldProbs, offset, out, 0, count * actionDim);
         }
-        return klSum / batch.size();
     }
 
-    // Approximate the Fisher–vector product: F*v ≈ (∇²KL) * v.
-    // We use a finite-difference approximation on the KL gradient.
-    public double[] fisherVectorProduct(double[] v, List<Transition> batch) {
-        double r = 1e-5;
-        double[] theta = flattenParameters();
-        // Compute theta_plus = theta + r*v.
-        double[] thetaPlus = new double[theta.length];
-        for (int i = 0; i < theta.length; i++) {
-            thetaPlus[i] = theta[i] + r * v[i];
+    // The recorded rows of a rollout buffer, read in place.
+    private Batch rows(RolloutBuffer buffer) {
+        Batch batch = new Batch();
+        if (buffer.getPrecision() == Precision.FLOAT) {
+            batch.floatStates = buffer.getFloatStates();
+            batch.floatOldProbs = buffer.getFloatProbs();
+        } else {
+            batch.states = buffer.getStates();
+            batch.oldProbs = buffer.getProbs();
         }
-        // Set parameters to theta_plus and compute the KL gradient.
-        setParameters(thetaPlus);
-        double[] gradPlus = computeKLGradient(batch);
-        // Reset to original theta.
-        setParameters(theta);
-        double[] grad = computeKLGradient(batch);
-        double[] fvp = new double[v.length];
-        for (int i = 0; i < v.length; i++) {
-            fvp[i] = (gradPlus[i] - grad[i]) / r;
+        batch.actions = buffer.getActions();
+        batch.advantages = buffer.getAdvantages();
+        batch.size = buffer.size();
+        return batch;
+    }
+
+    // Copy the transitions into the row-major batch workspaces, in the precision of the policy.
+    private Batch pack(List<Transition> batch) {
+        int batchSize = batch.size();
+        ensureCapacity(batchSize);
+        for (int n = 0; n < batchSize; n++) {
+            Transition t = batch.get(n);
+            if (packed.floatStates != null) {
+                for (int j = 0; j < stateDim; j++) {
+                    packed.floatStates[n * stateDim + j] = (float) t.state[j];
+                }
+                for (int i = 0; i < actionDim; i++) {
+                    packed.floatOldProbs[n * actionDim + i] = (float) t.oldProbs[i];
+                }
+            } else {
+                System.arraycopy(t.state, 0, packed.states, n * stateDim, stateDim);
+                System.arraycopy(t.oldProbs, 0, packed.oldProbs, n * actionDim, actionDim);
+            }
+            packed.actions[n] = t.action;
+            packed.advantages[n] = t.advantage;
+        }
+        packed.size = batchSize;
+        return packed;
+    }
+
+    // Grow the batch workspaces to hold at least batchSize rows.
+    private void ensureCapacity(int batchSize) {
+        if (packed.actions != null && packed.actions.length >= batchSize) {
+            return;
         }
+        int capacity = (packed.actions == null) ? batchSize : Math.max(batchSize, 2 * packed.actions.length);
+        if (policy.getPrecision() == Precision.FLOAT) {
+            packed.floatStates = new float[capacity * stateDim];
+            packed.floatOldProbs = new float[capacity * actionDim];
+        } else {
+            packed.states = new double[capacity * stateDim];
+            packed.oldProbs = new double[capacity * actionDim];
+        }
+        packed.actions = new int[capacity];
+        packed.advantages = new double[capacity];
+    }
+
+    // Exact Fisher–vector product of the softmax policy at the current parameters:
+    //   F*v = (1/N) * sum_n J_n^T * (diag(p_n) - p_n p_n^T) * J_n * v,
+    // where J_n is the Jacobian of the logits at state n. Since the parameters have not
+    // moved since the batch was collected, p_n are the stored old probabilities, so no
+    // softmax is recomputed. Each chunk of the batch runs one fused pass (J*v forward,
+    // diag(p) - p p^T in logit space, J^T backward) in parallel.
+    public double[] fisherVectorProduct(double[] v, List<Transition> batch) {
+        double[] fvp = new double[v.length];
+        fisherVectorProduct(v, pack(batch), fvp);
+        return fvp;
+    }
+
+    public double[] fisherVectorProduct(double[] v, RolloutBuffer buffer) {
+        double[] fvp = new double[v.length];
+        fisherVectorProduct(v, buffer, fvp);
+        return fvp;
+    }
+
+    // In-place variant for iterative solvers: writes F*v into out.
+    public void fisherVectorProduct(double[] v, RolloutBuffer buffer, double[] out) {
+        fisherVectorProduct(v, rows(buffer), out);
+    }
+
+    private void fisherVectorProduct(double[] v, Batch batch, double[] fvp) {
+        Model model = policy.getModel();
+        double scale = 1.0 / batch.size;
+        reducer.reduce(batch.size, fvp.length, (first, count, partial) -> {
+            double[][] buffers = chunkBuffers.get();
+            double[] u = buffers[1];
+            double[] probs = buffers[2];
+            if (batch.floatStates != null) {
+                model.jvpBatch(batch.floatStates, first, count, v, u);
+            } else {
+                model.jvpBatch(batch.states, first, count, v, u);
+            }
+            oldProbsChunk(batch, first, count, probs);
+            // u <- (diag(p) - p p^T) u, row by row.
+            for (int n = 0; n < count; n++) {
+                int row = n * actionDim;
+                double pu = 0.0;
+                for (int i = 0; i < actionDim; i++) {
+                    pu += probs[row + i] * u[row + i];
+                }
+                for (int i = 0; i < actionDim; i++) {
+                    u[row + i] = probs[row + i] * (u[row + i] - pu);
+                }
+            }
+            backwardChunk(batch, first, count, u, scale, partial);
+        }, fvp);
         // Add a small damping term for numerical stability.
-        double damping = 1e-3;
         for (int i = 0; i < fvp.length; i++) {
-            fvp[i] += damping * v[i];
+            fvp[i] += FISHER_DAMPING * v[i];
+        }
+    }
+
+    // Writes the diagonal of the (damped) Fisher matrix used by fisherVectorProduct into out,
+    // for Jacobi preconditioning. Per parameter k:
+    //   F_kk = (1/N) * sum_n sum_a p_na * (d log π(a|s_n) / dθ_k)^2,
+    // computed with one batched squared-gradient pass per action and chunk.
+    public void fisherDiagonal(RolloutBuffer buffer, double[] out) {
+        Batch batch = rows(buffer);
+        Model model = policy.getModel();
+        double scale = 1.0 / batch.size;
+        reducer.reduce(batch.size, out.length, (first, count, partial) -> {
+            double[][] buffers = chunkBuffers.get();
+            double[] dLogits = buffers[1];
+            double[] probs = buffers[2];
+            oldProbsChunk(batch, first, count, probs);
+            for (int a = 0; a < actionDim; a++) {
+                // sqrt(p_a) * (one_hot(a) - p) per row, so the squared gradient is weighted by p_a.
+                for (int n = 0; n < count; n++) {
+                    int row = n * actionDim;
+                    double weight = Math.sqrt(probs[row + a]);
+                    for (int i = 0; i < actionDim; i++) {
+                        dLogits[row + i] = weight * (((i == a) ? 1.0 : 0.0) - probs[row + i]);
+                    }
+                }
+                if (batch.floatStates != null) {
+                    model.squaredGradientBatch(batch.floatStates, first, count, dLogits, scale, partial);
+                } else {
+                    model.squaredGradientBatch(batch.states, first, count, dLogits, scale, partial);
+                }
+            }
+        }, out);
+        for (int i = 0; i < out.length; i++) {
+            out[i] += FISHER_DAMPING;
         }
-        return fvp;
     }
 }
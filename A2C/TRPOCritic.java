@@ -1,53 +1,71 @@
 package A2C;
 
+import linalg.Precision;
+import util.RolloutBuffer;
+import util.Transition;
+
 import java.util.Random;
 
 public class TRPOCritic {
     private int stateDim;
-    private double[] weights;
-    private double bias;
+    private ValueFunction valueFunction; // weights [stateDim] and bias in one flat vector
     private double learningRate;
     private Random random;
+    private double[] stateBuffer;
 
     public TRPOCritic(int stateDim, double learningRate) {
+        this(stateDim, learningRate, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear critic whose parameters are stored with the given precision.
+     */
+    public TRPOCritic(int stateDim, double learningRate, Precision precision) {
         this.stateDim = stateDim;
         this.learningRate = learningRate;
         random = new Random();
-        weights = new double[stateDim];
-        for (int i = 0; i < stateDim; i++) {
-            weights[i] = (random.nextDouble() - 0.5) * 0.1;
-        }
-        bias = 0.0;
+        valueFunction = new ValueFunction(stateDim, random, precision);
+        stateBuffer = new double[stateDim];
+    }
+
+    /**
+     * Creates a critic whose value is computed by the given single-output model (for example an {@link MLP}).
+     */
+    public TRPOCritic(Model model, double learningRate) {
+        this.stateDim = model.getInputDim();
+        this.learningRate = learningRate;
+        random = new Random();
+        valueFunction = new ValueFunction(model);
+        stateBuffer = new double[stateDim];
     }
 
     // Compute the state value: V(s) = w^T * state + b.
     public double value(double[] state) {
-        double v = bias;
-        for (int i = 0; i < stateDim; i++) {
-            v += weights[i] * state[i];
-        }
-        return v;
+        return valueFunction.value(state);
     }
 
     // Update using a simple gradient step on the squared error.
     public void update(double[] state, double target) {
-        double v = value(state);
-        double error = target - v;
-        for (int i = 0; i < stateDim; i++) {
-            weights[i] += learningRate * error * state[i];
-        }
-        bias += learningRate * error;
+        valueFunction.update(state, target, learningRate);
     }
 
     // Batch update over a set of transitions.
     public void updateBatch(java.util.List<Transition> batch) {
         for (Transition t : batch) {
-            double v = value(t.state);
-            double error = t.returnG - v;
-            for (int i = 0; i < stateDim; i++) {
-                weights[i] += learningRate * error * t.state[i];
-            }
-            bias += learningRate * error;
+            valueFunction.update(t.state, t.returnG, learningRate);
         }
     }
+
+    // Batch update over all rows recorded in a rollout buffer, in time order.
+    public void updateBatch(RolloutBuffer buffer) {
+        double[] returns = buffer.getReturns();
+        for (int row = 0; row < buffer.size(); row++) {
+            buffer.getState(row, stateBuffer);
+            valueFunction.update(stateBuffer, returns[row], learningRate);
+        }
+    }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
+    }
 }
@@ -0,0 +1,157 @@
+package A2C;
+
+import linalg.ParallelReducer;
+import linalg.Precision;
+
+import java.util.Random;
+
+/**
+ * A state-value estimate V(s) given by a {@link Model} with a single output.
+ * Shared by {@link Critic}, {@link PPOCritic} and {@link TRPOCritic}. With the default
+ * linear model, V(s) = w^T * s + b with w followed by b in one flat parameter vector.
+ * The methods on the model's own parameters work in either {@link Precision}.
+ */
+public class ValueFunction {
+    private final Model model;
+    private final ThreadLocal<double[]> buffers = ThreadLocal.withInitial(() -> new double[1]);
+    private static final int CHUNK_ROWS = 256; // rows per parallel task in updateBatch
+
+    private final ThreadLocal<double[]> chunkBuffers = ThreadLocal.withInitial(() -> new double[CHUNK_ROWS]);
+    private final ParallelReducer reducer = new ParallelReducer(CHUNK_ROWS);
+    private double[] gradient;
+
+    /**
+     * Creates a linear value function with small random weights.
+     */
+    public ValueFunction(int stateDim, Random random) {
+        this(stateDim, random, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a linear value function with small random weights stored with the given precision.
+     */
+    public ValueFunction(int stateDim, Random random, Precision precision) {
+        this(new MLP(stateDim, new int[0], 1, Activation.IDENTITY, random, precision));
+    }
+
+    public ValueFunction(Model model) {
+        if (model.getOutputDim() != 1) {
+            throw new IllegalArgumentException("Error: a value function model must have exactly one output");
+        }
+        this.model = model;
+        this.gradient = new double[model.getParameterStorage().size()];
+    }
+
+    public double value(double[] state) {
+        double[] out = buffers.get();
+        model.forward(state, out);
+        return out[0];
+    }
+
+    /**
+     * Computes V(s) using an alternative flat parameter vector laid out like
+     * {@link #getParameters()}, without touching the model.
+     */
+    public double value(double[] theta, double[] state) {
+        double[] out = buffers.get();
+        model.forward(theta, state, out);
+        return out[0];
+    }
+
+    /**
+     * {@link #value(double[], double[])} with float parameters.
+     */
+    public double value(float[] theta, double[] state) {
+        double[] out = buffers.get();
+        model.forward(theta, state, out);
+        return out[0];
+    }
+
+    /**
+     * Computes V(s) for a batch of states stored row-major ([batch x stateDim]) into out.
+     */
+    public void valueBatch(double[] states, int batch, double[] out) {
+        if (model.getPrecision() == Precision.FLOAT) {
+            model.forwardBatch(model.getFloatParameters(), states, 0, batch, out);
+        } else {
+            model.forwardBatch(model.getParameters(), states, batch, out);
+        }
+    }
+
+    /**
+     * Takes one gradient step on the squared error (target - V(s))^2 / 2.
+     * @return the error target - V(s) before the step.
+     */
+    public double update(double[] state, double target, double learningRate) {
+        double[] out = buffers.get();
+        model.forward(state, out);
+        double error = target - out[0];
+        out[0] = error;
+        if (model.getPrecision() == Precision.FLOAT) {
+            model.backward(state, out, learningRate, model.getFloatParameters());
+        } else {
+            model.backward(state, out, learningRate, model.getParameters());
+        }
+        return error;
+    }
+
+    /**
+     * Takes one gradient step on the squared error summed over a batch of states stored
+     * row-major ([batch x stateDim]). The gradient is accumulated over chunks of the batch
+     * in parallel and reduced in a fixed order, so the step does not depend on the number
+     * of threads. Not safe to call concurrently on the same value function.
+     */
+    public void updateBatch(double[] states, double[] targets, int batch, double learningRate) {
+        double[] theta = model.getParameters();
+        reducer.reduce(batch, gradient.length, (first, count, partial) -> {
+            double[] out = chunkBuffers.get();
+            model.forwardBatch(theta, states, first, count, out);
+            for (int n = 0; n < count; n++) {
+                out[n] = targets[first + n] - out[n];
+            }
+            model.backwardBatch(states, first, count, out, 1.0, partial);
+        }, gradient);
+        for (int i = 0; i < gradient.length; i++) {
+            theta[i] += learningRate * gradient[i];
+        }
+    }
+
+    /**
+     * {@link #updateBatch(double[], double[], int, double)} for a model with float parameters
+     * and float states. The gradient is reduced in double and the step rounded into the parameters.
+     */
+    public void updateBatch(float[] states, double[] targets, int batch, double learningRate) {
+        float[] theta = model.getFloatParameters();
+        reducer.reduce(batch, gradient.length, (first, count, partial) -> {
+            double[] out = chunkBuffers.get();
+            model.forwardBatch(theta, states, first, count, out);
+            for (int n = 0; n < count; n++) {
+                out[n] = targets[first + n] - out[n];
+            }
+            model.backwardBatch(theta, states, first, count, out, 1.0, partial);
+        }, gradient);
+        model.getParameterStorage().addScaled(learningRate, gradient);
+    }
+
+    /**
+     * @return the flat parameter vector backing this value function (zero-copy).
+     */
+    public double[] getParameters() {
+        return model.getParameters();
+    }
+
+    /**
+     * @return the flat float parameter vector backing this value function (zero-copy).
+     */
+    public float[] getFloatParameters() {
+        return model.getFloatParameters();
+    }
+
+    public Precision getPrecision() {
+        return model.getPrecision();
+    }
+
+    public Model getModel() {
+        return model;
+    }
+}
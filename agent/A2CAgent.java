@@ -3,7 +3,7 @@ package agent;
 import A2C.Actor;
 import A2C.Critic;
 import environment.CartPole;
-import environment.StepResult;
+import linalg.Precision;
 
 public class A2CAgent {
     private CartPole env;
@@ -14,30 +14,38 @@ public class A2CAgent {
     private int actionDim;
 
     public A2CAgent(CartPole env, double gamma, double actorLr, double criticLr) {
+        this(env, gamma, actorLr, criticLr, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision storage precision of the actor and critic parameters.
+     */
+    public A2CAgent(CartPole env, double gamma, double actorLr, double criticLr, Precision precision) {
         this.env = env;
         this.gamma = gamma;
         // For CartPole, state dimension is 4 and there are 2 actions.
         this.stateDim = 4;
         this.actionDim = 2;
-        actor = new Actor(stateDim, actionDim, actorLr);
-        critic = new Critic(stateDim, criticLr);
+        actor = new Actor(stateDim, actionDim, actorLr, precision);
+        critic = new Critic(stateDim, criticLr, precision);
     }
 
     public void train(int episodes) {
+        // State buffers are reused across steps and swapped after each transition.
+        double[] state = new double[stateDim];
+        double[] nextState = new double[stateDim];
         for (int episode = 0; episode < episodes; episode++) {
-            double[] state = env.reset();
+            env.reset(state);
             double totalReward = 0.0;
             while (!env.isDone()) {
                 // Actor selects an action.
                 int action = actor.selectAction(state);
-                StepResult<double[]> result = env.step(action);
-                double reward = result.getReward();
-                double[] nextState = result.getState();
+                double reward = env.step(action, nextState);
                 totalReward += reward;
 
                 // Compute TD target.
                 double target = reward;
-                if (!result.isDone()) {
+                if (!env.isDone()) {
                     target += gamma * critic.value(nextState);
                 }
 
@@ -50,8 +58,12 @@ public class A2CAgent {
                 // Update Actor (policy) using the advantage.
                 actor.update(state, action, advantage);
 
+                double[] tmp = state;
                 state = nextState;
+                nextState = tmp;
             }
+            // Let concurrent readers of actor.getSnapshot() see this episode's updates.
+            actor.publish();
             System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
         }
     }
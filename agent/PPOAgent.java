@@ -2,12 +2,20 @@ package agent;
 
 import A2C.PPOActor;
 import A2C.PPOCritic;
+import A2C.PolicySnapshot;
+import A2C.ValueFunction;
 import environment.CartPole;
-import environment.StepResult;
-import util.Transition;
+import linalg.Precision;
+import util.RolloutBuffer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PPOAgent {
     private CartPole env;
@@ -19,67 +27,233 @@ public class PPOAgent {
 
     // PPO hyperparameters:
     private double clipEpsilon;
-    private int updateEpochs; // number of passes over the collected trajectory
-    // For simplicity, we use the entire episode as one batch.
+    private int updateEpochs; // number of passes over each collected rollout
+    private double lambda;    // GAE(λ) parameter; 1 gives the discounted return minus the value
+    private int miniBatchSize;
+    private RolloutBuffer buffer; // fixed horizon, reused for every rollout
+    private Random random;
+
+    // Critic parameters as of the end of the latest update, for the collector of trainPipelined.
+    // The actor parameters are published by the actor itself; actorVersion is the version of
+    // the actor snapshot these critic parameters go with.
+    private static final class CriticSnapshot {
+        final double[] critic;     // null for a float critic
+        final float[] floatCritic; // null for a double critic
+        final long actorVersion;
+
+        CriticSnapshot(ValueFunction valueFunction, long actorVersion) {
+            boolean isFloat = (valueFunction.getPrecision() == Precision.FLOAT);
+            this.critic = isFloat ? null : valueFunction.getParameters().clone();
+            this.floatCritic = isFloat ? valueFunction.getFloatParameters().clone() : null;
+            this.actorVersion = actorVersion;
+        }
+
+        double value(ValueFunction valueFunction, double[] state) {
+            if (floatCritic != null) {
+                return valueFunction.value(floatCritic, state);
+            }
+            return valueFunction.value(critic, state);
+        }
+    }
+
+    private final AtomicReference<CriticSnapshot> publishedCritic = new AtomicReference<>();
+    private static final RolloutBuffer END_OF_ROLLOUTS = new RolloutBuffer(1, 1, 0, 0);
 
     public PPOAgent(CartPole env, double gamma, double actorLr, double criticLr,
                     double clipEpsilon, int updateEpochs) {
+        this(env, gamma, actorLr, criticLr, clipEpsilon, updateEpochs, 1024, 1.0, 64);
+    }
+
+    /**
+     * @param horizon number of steps per rollout; episodes continue across rollouts.
+     * @param miniBatchSize number of rollout steps per gradient step.
+     */
+    public PPOAgent(CartPole env, double gamma, double actorLr, double criticLr,
+                    double clipEpsilon, int updateEpochs, int horizon, double lambda, int miniBatchSize) {
+        this(env, gamma, actorLr, criticLr, clipEpsilon, updateEpochs, horizon, lambda, miniBatchSize,
+                Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision storage precision of the actor and critic parameters and of the rollouts.
+     */
+    public PPOAgent(CartPole env, double gamma, double actorLr, double criticLr, double clipEpsilon,
+                    int updateEpochs, int horizon, double lambda, int miniBatchSize, Precision precision) {
         this.env = env;
         this.gamma = gamma;
         // For CartPole, state dimension is 4 and there are 2 actions.
         this.stateDim = 4;
         this.actionDim = 2;
-        this.actor = new PPOActor(stateDim, actionDim, actorLr);
-        this.critic = new PPOCritic(stateDim, criticLr);
+        this.actor = new PPOActor(stateDim, actionDim, actorLr, precision);
+        this.critic = new PPOCritic(stateDim, criticLr, precision);
         this.clipEpsilon = clipEpsilon;
         this.updateEpochs = updateEpochs;
+        this.lambda = lambda;
+        this.miniBatchSize = miniBatchSize;
+        this.buffer = new RolloutBuffer(horizon, 1, stateDim, actionDim, precision);
+        this.random = new Random();
     }
 
     public void train(int episodes) {
-        List<Transition> trajectory = new ArrayList<>();
-
-        for (int episode = 0; episode < episodes; episode++) {
-            double[] state = env.reset();
-            double totalReward = 0.0;
-            trajectory.clear();
-
-            // Collect one episode.
-            while (!env.isDone()) {
-                Transition t = new Transition();
-                t.state = state.clone();
-                // Actor selects an action and stores its log probability in the transition.
-                int action = actor.selectAction(state, t);
-                t.action = action;
+        // The current state is written in place by the environment.
+        double[] state = new double[stateDim];
+        double[] probs = new double[actionDim];
+        double[] lastValue = new double[1];
+        env.reset(state);
+        double totalReward = 0.0;
+        int episode = 0;
 
+        while (episode < episodes) {
+            // Collect a rollout of at most `horizon` steps.
+            buffer.clear();
+            while (!buffer.isFull() && episode < episodes) {
+                // Actor selects an action; its log probability is kept for the ratio.
+                int action = actor.selectAction(state, probs);
                 // Get critic’s value estimate.
-                t.value = critic.value(state);
+                double value = critic.value(state);
+                buffer.record(0, state, action, null, Math.log(probs[action]), value);
 
                 // Take the action in the environment.
-                StepResult<double[]> result = env.step(action);
-                t.reward = result.getReward();
-                totalReward += t.reward;
-
-                state = result.getState().clone();
+                double reward = env.step(action, state);
+                buffer.recordOutcome(0, reward, env.isDone());
+                buffer.advance();
+                totalReward += reward;
 
-                trajectory.add(t);
+                if (env.isDone()) {
+                    System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
+                    episode++;
+                    totalReward = 0.0;
+                    env.reset(state);
+                }
             }
 
-            // Compute discounted returns and advantages for the episode.
-            double G = 0;
-            for (int i = trajectory.size() - 1; i >= 0; i--) {
-                Transition t = trajectory.get(i);
-                G = t.reward + gamma * G;
-                t.returnG = G;
-                t.advantage = t.returnG - t.value;
+            // Compute returns and advantages, bootstrapping an unfinished episode from V(s).
+            lastValue[0] = critic.value(state);
+            buffer.computeAdvantages(gamma, lambda, lastValue);
+
+            update(buffer);
+        }
+    }
+
+    // Perform several epochs of shuffled mini-batch updates over the rollout.
+    private void update(RolloutBuffer rollout) {
+        for (int epoch = 0; epoch < updateEpochs; epoch++) {
+            int[] indices = rollout.shuffle(random);
+            for (int from = 0; from < rollout.size(); from += miniBatchSize) {
+                int to = Math.min(from + miniBatchSize, rollout.size());
+                actor.updateBatch(rollout, indices, from, to, clipEpsilon);
+                critic.updateBatch(rollout, indices, from, to);
             }
+        }
+        // Let concurrent readers of actor.getSnapshot() see the updated policy.
+        actor.publish();
+    }
 
-            // Perform several epochs of update over the collected trajectory.
-            for (int epoch = 0; epoch < updateEpochs; epoch++) {
-                actor.updateBatch(trajectory, clipEpsilon);
-                critic.updateBatch(trajectory);
+    /**
+     * Same training as {@link #train}, with collection and learning overlapped: a collector
+     * thread fills one rollout buffer while this thread runs the update epochs over the other,
+     * and the two buffers alternate. The collector acts with the parameters published at the
+     * end of the latest finished update, so each rollout is one update behind the policy it
+     * trains; the stored log probabilities are those of the collecting parameters, so the
+     * clipped ratio also bounds that lag. Prints how much wall time the overlap saved
+     * compared with running the same collection and updates one after the other.
+     */
+    public void trainPipelined(int episodes) throws InterruptedException {
+        BlockingQueue<RolloutBuffer> filled = new ArrayBlockingQueue<>(3); // two rollouts and the end marker
+        BlockingQueue<RolloutBuffer> empty = new ArrayBlockingQueue<>(2);
+        empty.add(buffer);
+        empty.add(new RolloutBuffer(buffer.getHorizon(), 1, stateDim, actionDim, buffer.getPrecision()));
+        publishCritic();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        long start = System.nanoTime();
+        long updateNanos = 0;
+        try {
+            Future<Long> collector = executor.submit(() -> collect(episodes, filled, empty));
+            while (true) {
+                RolloutBuffer rollout = filled.take();
+                if (rollout == END_OF_ROLLOUTS) {
+                    break;
+                }
+                long updateStart = System.nanoTime();
+                update(rollout); // also publishes the actor
+                publishCritic();
+                updateNanos += System.nanoTime() - updateStart;
+                empty.put(rollout);
             }
+            long collectNanos = collector.get();
+            long wallNanos = System.nanoTime() - start;
+            System.out.printf("Pipelined PPO: %.1f ms wall, %.1f ms collecting, %.1f ms updating, "
+                            + "%.1f ms saved versus serial%n", wallNanos / 1e6, collectNanos / 1e6,
+                    updateNanos / 1e6, (collectNanos + updateNanos - wallNanos) / 1e6);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error: the rollout collector failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Publishes the critic parameters paired with the actor snapshot published last.
+    private void publishCritic() {
+        publishedCritic.set(new CriticSnapshot(critic.getValueFunction(), actor.getSnapshot().getVersion()));
+    }
+
+    // Collector thread: fills rollouts with the latest published parameters; returns the time spent.
+    private long collect(int episodes, BlockingQueue<RolloutBuffer> filled, BlockingQueue<RolloutBuffer> empty)
+            throws InterruptedException {
+        ValueFunction valueFunction = critic.getValueFunction();
+        Random collectorRandom = new Random();
+        double[] state = new double[stateDim];
+        double[] probs = new double[actionDim];
+        double[] lastValue = new double[1];
+        env.reset(state);
+        double totalReward = 0.0;
+        int episode = 0;
+        long nanos = 0;
 
-            System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
+        try {
+            while (episode < episodes) {
+                RolloutBuffer rollout = empty.take();
+                long start = System.nanoTime();
+                // Both fixed for the whole rollout. The critic is published after the actor, so
+                // a version mismatch only lasts until the learner finishes publishing.
+                CriticSnapshot criticSnapshot;
+                PolicySnapshot actorSnapshot;
+                while (true) {
+                    criticSnapshot = publishedCritic.get();
+                    actorSnapshot = actor.getSnapshot();
+                    if (actorSnapshot.getVersion() == criticSnapshot.actorVersion) {
+                        break;
+                    }
+                    Thread.onSpinWait();
+                }
+                rollout.clear();
+                while (!rollout.isFull() && episode < episodes) {
+                    int action = actorSnapshot.selectAction(state, probs, collectorRandom);
+                    double value = criticSnapshot.value(valueFunction, state);
+                    rollout.record(0, state, action, null, Math.log(probs[action]), value);
+
+                    double reward = env.step(action, state);
+                    rollout.recordOutcome(0, reward, env.isDone());
+                    rollout.advance();
+                    totalReward += reward;
+
+                    if (env.isDone()) {
+                        System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
+                        episode++;
+                        totalReward = 0.0;
+                        env.reset(state);
+                    }
+                }
+                lastValue[0] = criticSnapshot.value(valueFunction, state);
+                rollout.computeAdvantages(gamma, lambda, lastValue);
+                nanos += System.nanoTime() - start;
+                filled.put(rollout);
+            }
+        } finally {
+            // Also sent if collection fails, so the learner stops waiting; get() then rethrows.
+            filled.put(END_OF_ROLLOUTS);
         }
+        return nanos;
     }
 }
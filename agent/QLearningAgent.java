@@ -1,91 +1,114 @@
 package agent;
 
+import policy.IntPolicy;
 import policy.Policy;
-import java.util.HashMap;
-import java.util.Map;
+import qtable.QTable;
+import qtable.QTableBackend;
+import space.Discretizer;
 
 /**
  * A Q-learning agent that discretizes the continuous CartPole state.
- * Uses a Q-table stored as a map from discretized state keys to arrays of Q-values.
+ * Each discretized state is encoded as a mixed-radix long index into a {@link QTable}.
  */
 public class QLearningAgent extends Agent<double[], Integer> {
-    private Map<String, double[]> qTable;
+    // Default ranges for [x, x_dot, theta, theta_dot]; theta is approximately ±12 degrees (radians).
+    private static final double[] CARTPOLE_MIN = {-2.4, -3.0, -0.209, -3.5};
+    private static final double[] CARTPOLE_MAX = {2.4, 3.0, 0.209, 3.5};
+    private static final int DEFAULT_BINS = 20; // number of bins for discretization
+
+    private QTable qTable;
+    private Discretizer discretizer;
     private int numActions;
-    private Policy<double[], Integer> policy;
-    private int bins = 20; // number of bins for discretization
+    private Policy<double[], Integer> policy; // either policy or intPolicy is set
+    private IntPolicy intPolicy;
+    private double[] qBuffer; // reused to pass Q-values to the policy
 
     public QLearningAgent(double learningRate, double discountFactor, Policy<double[], Integer> policy, int numActions) {
-        super(learningRate, discountFactor);
-        this.policy = policy;
-        this.numActions = numActions;
-        qTable = new HashMap<>();
+        this(learningRate, discountFactor, policy,
+                new Discretizer(CARTPOLE_MIN, CARTPOLE_MAX, DEFAULT_BINS), QTableBackend.HASH, numActions);
     }
 
     /**
-     * Discretizes the continuous state into a string key.
-     * Assumes state = [x, x_dot, theta, theta_dot].
+     * Creates an agent whose table is sized from the discretizer's bin counts.
+     * @param backend the storage backend for the Q-table.
      */
-    private String discretize(double[] state) {
-        // Define assumed ranges for each variable.
-        double xMin = -2.4, xMax = 2.4;
-        double xDotMin = -3.0, xDotMax = 3.0;
-        double thetaMin = -0.209, thetaMax = 0.209; // approximately ±12 degrees (radians)
-        double thetaDotMin = -3.5, thetaDotMax = 3.5;
-
-        int xBin = discretizeValue(state[0], xMin, xMax, bins);
-        int xDotBin = discretizeValue(state[1], xDotMin, xDotMax, bins);
-        int thetaBin = discretizeValue(state[2], thetaMin, thetaMax, bins);
-        int thetaDotBin = discretizeValue(state[3], thetaDotMin, thetaDotMax, bins);
+    public QLearningAgent(double learningRate, double discountFactor, Policy<double[], Integer> policy,
+                          Discretizer discretizer, QTableBackend backend, int numActions) {
+        this(learningRate, discountFactor, policy, discretizer,
+                backend.create(discretizer.getNumStates(), numActions));
+    }
 
-        return xBin + "_" + xDotBin + "_" + thetaBin + "_" + thetaDotBin;
+    public QLearningAgent(double learningRate, double discountFactor, Policy<double[], Integer> policy,
+                          Discretizer discretizer, QTable qTable) {
+        super(learningRate, discountFactor);
+        this.policy = policy;
+        this.discretizer = discretizer;
+        this.numActions = qTable.getNumActions();
+        this.qTable = qTable;
+        this.qBuffer = new double[numActions];
     }
 
     /**
-     * Helper method to discretize a single value.
+     * Creates an agent that selects actions with a primitive int policy, without boxing.
      */
-    private int discretizeValue(double value, double min, double max, int bins) {
-        value = Math.max(Math.min(value, max), min);
-
-        double binSize = (max - min) / bins;
-        int bin = (int) ((value - min) / binSize);
-        bin = Math.min(bin, bins);
-        return bin;
+    public QLearningAgent(double learningRate, double discountFactor, IntPolicy policy,
+                          Discretizer discretizer, QTable qTable) {
+        super(learningRate, discountFactor);
+        this.intPolicy = policy;
+        this.discretizer = discretizer;
+        this.numActions = qTable.getNumActions();
+        this.qTable = qTable;
+        this.qBuffer = new double[numActions];
     }
 
     @Override
     public Integer chooseAction(double[] state) {
-        String key = discretize(state);
-        if (!qTable.containsKey(key)) {
-            qTable.put(key, new double[numActions]);
+        if (intPolicy != null) {
+            return selectAction(state);
+        }
+        qTable.getValues(discretizer.index(state), qBuffer);
+        return policy.chooseAction(state, qBuffer);
+    }
+
+    /**
+     * Primitive variant of {@link #chooseAction(double[])}.
+     * @throws IllegalStateException if the agent was not created with an {@link IntPolicy}.
+     */
+    public int selectAction(double[] state) {
+        if (intPolicy == null) {
+            throw new IllegalStateException("Error: selectAction requires an IntPolicy; use chooseAction");
         }
-        double[] qValues = qTable.get(key);
-        return policy.chooseAction(state, qValues);
+        long key = discretizer.index(state);
+        qTable.getValues(key, qBuffer);
+        return intPolicy.chooseAction(key, qBuffer);
     }
 
     @Override
     public void learn(double[] state, Integer action, double reward, double[] nextState, boolean done) {
-        String key = discretize(state);
-        if (!qTable.containsKey(key)) {
-            qTable.put(key, new double[numActions]);
-        }
-        String nextKey = discretize(nextState);
-        if (!qTable.containsKey(nextKey)) {
-            qTable.put(nextKey, new double[numActions]);
-        }
-        double[] qValues = qTable.get(key);
-        double[] nextQValues = qTable.get(nextKey);
+        learn(state, action.intValue(), reward, nextState, done);
+    }
+
+    /**
+     * Primitive variant of {@link #learn(double[], Integer, double, double[], boolean)}.
+     */
+    public void learn(double[] state, int action, double reward, double[] nextState, boolean done) {
+        long key = discretizer.index(state);
 
         // Compute the maximum Q value for the next state.
         double maxNextQ = 0.0;
         if (!done) {
-            maxNextQ = nextQValues[0];
-            for (int i = 1; i < numActions; i++) {
-                if (nextQValues[i] > maxNextQ) {
-                    maxNextQ = nextQValues[i];
-                }
-            }
+            maxNextQ = qTable.maxValue(discretizer.index(nextState));
         }
         // Q-learning update rule.
-        qValues[action] = qValues[action] + learningRate * (reward + discountFactor * maxNextQ - qValues[action]);
+        double q = qTable.get(key, action);
+        qTable.add(key, action, learningRate * (reward + discountFactor * maxNextQ - q));
+    }
+
+    public QTable getQTable() {
+        return qTable;
+    }
+
+    public Discretizer getDiscretizer() {
+        return discretizer;
     }
 }
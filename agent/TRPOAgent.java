@@ -1,13 +1,17 @@
 package agent;
 
+import A2C.SoftmaxPolicy;
 import A2C.TRPOActor;
 import A2C.TRPOCritic;
 import environment.CartPole;
-import environment.StepResult;
-import util.Transition;
+import linalg.ConjugateGradient;
+import linalg.LinearOperator;
+import linalg.Precision;
+import util.RolloutBuffer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class TRPOAgent {
     private CartPole env;
@@ -21,8 +25,48 @@ public class TRPOAgent {
     private double maxKL;      // maximum allowed KL divergence (δ)
     private int cgIterations;  // number of conjugate gradient iterations
     private double cgTolerance;
+    private double lambda;        // GAE(λ) parameter; 1 gives the discounted return minus the value
+    private RolloutBuffer buffer; // fixed horizon, reused for every rollout
+    private double[] surrogateProbs;
+
+    // Line search: one parameter vector (in the precision of the actor) and one
+    // [rows x actionDim] probability matrix per candidate.
+    private static final int LINE_SEARCH_STEPS = 10;
+    private boolean parallelLineSearch = true;
+    private ForkJoinPool lineSearchPool = ForkJoinPool.commonPool();
+    private double[][] candidateThetas;     // null for a float actor
+    private float[][] floatCandidateThetas; // null for a double actor
+    private double[][] candidateProbs;
+    private double[] candidateKL = new double[LINE_SEARCH_STEPS];
+    private double[] candidateSurrogate = new double[LINE_SEARCH_STEPS];
+
+    // Conjugate gradient solver for F*d = g, with its operator and preallocated vectors.
+    private ConjugateGradient solver;
+    private LinearOperator fisher;
+    private double[] stepDirection;  // d; kept between updates as the warm start
+    private double[] fisherDiagonal; // Jacobi preconditioner
+    private double[] fisherTimesStep;
+    private boolean warmStart = true;
+    private boolean preconditioning = true;
 
     public TRPOAgent(CartPole env, double gamma, double maxKL, int cgIterations, double cgTolerance, double criticLr) {
+        this(env, gamma, maxKL, cgIterations, cgTolerance, criticLr, 1024, 1.0);
+    }
+
+    /**
+     * @param horizon number of steps per rollout (one policy update each); episodes continue across rollouts.
+     */
+    public TRPOAgent(CartPole env, double gamma, double maxKL, int cgIterations, double cgTolerance, double criticLr,
+                     int horizon, double lambda) {
+        this(env, gamma, maxKL, cgIterations, cgTolerance, criticLr, horizon, lambda, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision storage precision of the actor and critic parameters and of the rollout. The
+     *                  conjugate gradient solver works in double either way.
+     */
+    public TRPOAgent(CartPole env, double gamma, double maxKL, int cgIterations, double cgTolerance, double criticLr,
+                     int horizon, double lambda, Precision precision) {
         this.env = env;
         this.gamma = gamma;
         this.maxKL = maxKL;
@@ -30,35 +74,49 @@ public class TRPOAgent {
         this.cgTolerance = cgTolerance;
         this.stateDim = 4;   // for CartPole
         this.actionDim = 2;
-        actor = new TRPOActor(stateDim, actionDim);
-        critic = new TRPOCritic(stateDim, criticLr);
+        actor = new TRPOActor(stateDim, actionDim, precision);
+        critic = new TRPOCritic(stateDim, criticLr, precision);
+        this.lambda = lambda;
+        buffer = new RolloutBuffer(horizon, 1, stateDim, actionDim, precision);
+        int dim = actor.getParameterDimension();
+        solver = new ConjugateGradient(dim, cgIterations);
+        fisher = (v, out) -> actor.fisherVectorProduct(v, buffer, out);
+        stepDirection = new double[dim];
+        fisherDiagonal = new double[dim];
+        fisherTimesStep = new double[dim];
+        int rows = horizon * buffer.getNumEnvs();
+        surrogateProbs = new double[rows * actionDim];
+        if (precision == Precision.FLOAT) {
+            floatCandidateThetas = new float[LINE_SEARCH_STEPS][dim];
+        } else {
+            candidateThetas = new double[LINE_SEARCH_STEPS][dim];
+        }
+        candidateProbs = new double[LINE_SEARCH_STEPS][rows * actionDim];
     }
 
-    // Conjugate gradient solver to solve A*x = b.
-    public double[] conjugateGradient(java.util.function.Function<double[], double[]> A, double[] b, int iterations, double tol) {
-        int n = b.length;
-        double[] x = new double[n];
-        for (int i = 0; i < n; i++) {
-            x[i] = 0.0;
-        }
-        double[] r = b.clone();
-        double[] p = r.clone();
-        double rsold = dot(r, r);
-        for (int i = 0; i < iterations; i++) {
-            double[] Ap = A.apply(p);
-            double alpha = rsold / (dot(p, Ap) + 1e-8);
-            for (int j = 0; j < n; j++) {
-                x[j] += alpha * p[j];
-                r[j] -= alpha * Ap[j];
-            }
-            double rsnew = dot(r, r);
-            if (rsnew < tol) break;
-            for (int j = 0; j < n; j++) {
-                p[j] = r[j] + (rsnew / rsold) * p[j];
-            }
-            rsold = rsnew;
-        }
-        return x;
+    // Start each solve from the previous update's step direction instead of zero.
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    // Precondition the solve with the diagonal of the Fisher matrix.
+    public void setPreconditioning(boolean preconditioning) {
+        this.preconditioning = preconditioning;
+    }
+
+    // Evaluate the line-search candidates concurrently (the default) or one by one with early exit.
+    public void setParallelLineSearch(boolean parallelLineSearch) {
+        this.parallelLineSearch = parallelLineSearch;
+    }
+
+    // Pool for the parallel line search; the common fork-join pool by default.
+    public void setLineSearchPool(ForkJoinPool pool) {
+        this.lineSearchPool = pool;
+    }
+
+    // The solver of the last update, for its iteration count and residual history.
+    public ConjugateGradient getSolver() {
+        return solver;
     }
 
     private double dot(double[] a, double[] b) {
@@ -71,99 +129,142 @@ public class TRPOAgent {
 
     // Train the agent.
     public void train(int episodes) {
-        List<Transition> trajectory = new ArrayList<>();
-        for (int episode = 0; episode < episodes; episode++) {
-            trajectory.clear();
-            double[] state = env.reset();
-            double totalReward = 0.0;
-            while (!env.isDone()) {
-                Transition t = new Transition();
-                t.state = state.clone();
-                t.action = actor.selectAction(state, t);
-                t.value = critic.value(state);
-                StepResult<double[]> result = env.step(t.action);
-                t.reward = result.getReward();
-                totalReward += t.reward;
-                state = result.getState().clone();
-                trajectory.add(t);
+        // The current state is written in place by the environment.
+        double[] state = new double[stateDim];
+        double[] probs = new double[actionDim];
+        double[] lastValue = new double[1];
+        env.reset(state);
+        double totalReward = 0.0;
+        int episode = 0;
+        while (episode < episodes) {
+            // Collect a rollout of at most `horizon` steps, keeping the old distributions.
+            buffer.clear();
+            while (!buffer.isFull() && episode < episodes) {
+                int action = actor.selectAction(state, probs);
+                double value = critic.value(state);
+                buffer.record(0, state, action, probs, Math.log(probs[action] + 1e-8), value);
+                double reward = env.step(action, state);
+                buffer.recordOutcome(0, reward, env.isDone());
+                buffer.advance();
+                totalReward += reward;
+                if (env.isDone()) {
+                    System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
+                    episode++;
+                    totalReward = 0.0;
+                    env.reset(state);
+                }
             }
 
-            // Compute discounted returns and advantages.
-            double G = 0.0;
-            for (int i = trajectory.size() - 1; i >= 0; i--) {
-                Transition t = trajectory.get(i);
-                G = t.reward + gamma * G;
-                t.returnG = G;
-                t.advantage = t.returnG - t.value;
-            }
+            // Compute returns and advantages, bootstrapping an unfinished episode from V(s).
+            lastValue[0] = critic.value(state);
+            buffer.computeAdvantages(gamma, lambda, lastValue);
 
             // Update the critic using the batch.
-            critic.updateBatch(trajectory);
+            critic.updateBatch(buffer);
 
             // Compute the policy gradient "g".
-            double[] g = actor.computePolicyGradient(trajectory);
+            double[] g = actor.computePolicyGradient(buffer);
 
-            // Define the function A(v) = F*v (Fisher vector product).
-            java.util.function.Function<double[], double[]> A = (double[] v) -> actor.fisherVectorProduct(v, trajectory);
-
-            // Solve for the step direction d using conjugate gradient.
-            double[] d = conjugateGradient(A, g, cgIterations, cgTolerance);
+            // Solve F*d = g for the step direction d using conjugate gradient,
+            // where F*v is the Fisher vector product.
+            if (preconditioning) {
+                actor.fisherDiagonal(buffer, fisherDiagonal);
+                solver.setPreconditioner(fisherDiagonal);
+            } else {
+                solver.setPreconditioner(null);
+            }
+            if (!warmStart) {
+                Arrays.fill(stepDirection, 0.0);
+            }
+            solver.solve(fisher, g, stepDirection, cgTolerance);
+            double[] d = stepDirection;
 
             // Compute d^T F d.
-            double[] Fd = actor.fisherVectorProduct(d, trajectory);
-            double dFd = dot(d, Fd);
+            fisher.apply(d, fisherTimesStep);
+            double dFd = dot(d, fisherTimesStep);
             double stepSize = Math.sqrt(2 * maxKL / (dFd + 1e-8));
 
-            // Candidate update: deltaTheta = stepSize * d.
-            double[] deltaTheta = new double[d.length];
-            for (int i = 0; i < d.length; i++) {
-                deltaTheta[i] = stepSize * d[i];
+            // Backtracking line search over theta + 0.5^i * stepSize * d. No candidate
+            // writes the actor's parameters; the accepted one is copied in at the end.
+            double oldSurrogate = computeSurrogateLoss(surrogateProbs);
+            int accepted = lineSearch(d, stepSize, oldSurrogate);
+            if (accepted >= 0 && floatCandidateThetas != null) {
+                actor.setParameters(floatCandidateThetas[accepted]);
+            } else if (accepted >= 0) {
+                actor.setParameters(candidateThetas[accepted]);
             }
+            // Otherwise no acceptable step was found and the parameters stay unchanged.
+        }
+    }
 
-            // Save old parameters.
-            double[] oldTheta = actor.flattenParameters();
-            // Backtracking line search.
-            double stepFraction = 1.0;
-            boolean found = false;
-            double oldSurrogate = computeSurrogateLoss(trajectory, oldTheta);
-            double[] newTheta = null;
-            for (int i = 0; i < 10; i++) {
-                newTheta = new double[oldTheta.length];
-                for (int j = 0; j < oldTheta.length; j++) {
-                    newTheta[j] = oldTheta[j] + stepFraction * deltaTheta[j];
-                }
-                actor.setParameters(newTheta);
-                double kl = actor.computeAverageKL(trajectory);
-                double newSurrogate = computeSurrogateLoss(trajectory, newTheta);
-                if (kl <= maxKL && newSurrogate > oldSurrogate) {
-                    found = true;
-                    break;
+    // Returns the index of the first (largest) acceptable step fraction, or -1.
+    private int lineSearch(double[] d, double stepSize, double oldSurrogate) {
+        if (parallelLineSearch) {
+            // Evaluate all candidates concurrently, then take the first acceptable one in order.
+            lineSearchPool.submit(() -> IntStream.range(0, LINE_SEARCH_STEPS).parallel()
+                    .forEach(i -> evaluateCandidate(i, d, stepSize))).join();
+            for (int i = 0; i < LINE_SEARCH_STEPS; i++) {
+                if (candidateKL[i] <= maxKL && candidateSurrogate[i] > oldSurrogate) {
+                    return i;
                 }
-                stepFraction *= 0.5;
             }
-            if (!found) {
-                // If no acceptable step is found, revert.
-                actor.setParameters(oldTheta);
+            return -1;
+        }
+        for (int i = 0; i < LINE_SEARCH_STEPS; i++) {
+            evaluateCandidate(i, d, stepSize);
+            if (candidateKL[i] <= maxKL && candidateSurrogate[i] > oldSurrogate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Fills candidate i: its parameters theta + 0.5^i * stepSize * d, KL and surrogate.
+    // Each candidate has its own parameter and probability arrays, so candidates can run concurrently.
+    private void evaluateCandidate(int i, double[] d, double stepSize) {
+        double step = stepSize * Math.pow(0.5, i);
+        double[] probs = candidateProbs[i];
+        if (floatCandidateThetas != null) {
+            float[] oldTheta = actor.getFloatParameters();
+            float[] theta = floatCandidateThetas[i];
+            for (int j = 0; j < theta.length; j++) {
+                theta[j] = (float) (oldTheta[j] + step * d[j]);
+            }
+            candidateKL[i] = actor.computeAverageKL(buffer, theta, probs);
+        } else {
+            double[] oldTheta = actor.getParameters();
+            double[] theta = candidateThetas[i];
+            for (int j = 0; j < theta.length; j++) {
+                theta[j] = oldTheta[j] + step * d[j];
             }
+            candidateKL[i] = actor.computeAverageKL(buffer, theta, probs);
+        }
+        candidateSurrogate[i] = surrogateFromProbs(probs);
+    }
 
-            System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
+    // Compute the surrogate loss at the actor's current parameters: the average of
+    // exp(newLogProb - oldLogProb)*advantage.
+    private double computeSurrogateLoss(double[] probs) {
+        if (floatCandidateThetas != null) {
+            actor.getPolicy().forwardBatch(actor.getFloatParameters(), buffer.getFloatStates(), 0, buffer.size(),
+                    probs);
+        } else {
+            actor.getPolicy().forwardBatch(actor.getParameters(), buffer.getStates(), buffer.size(), probs);
         }
+        return surrogateFromProbs(probs);
     }
 
-    // Compute the surrogate loss: the average of exp(newLogProb - oldLogProb)*advantage.
-    private double computeSurrogateLoss(List<Transition> batch, double[] theta) {
-        // Save current parameters.
-        double[] current = actor.flattenParameters();
-        actor.setParameters(theta);
+    private double surrogateFromProbs(double[] probs) {
+        int batchSize = buffer.size();
+        int[] actions = buffer.getActions();
+        double[] oldLogProbs = buffer.getLogProbs();
+        double[] advantages = buffer.getAdvantages();
         double surrogate = 0.0;
-        for (Transition t : batch) {
-            double[] probs = actor.forward(t.state);
-            double newLogProb = Math.log(probs[t.action] + 1e-8);
-            surrogate += Math.exp(newLogProb - t.oldLogProb) * t.advantage;
+        for (int n = 0; n < batchSize; n++) {
+            double newLogProb = Math.log(probs[n * actionDim + actions[n]] + 1e-8);
+            surrogate += Math.exp(newLogProb - oldLogProbs[n]) * advantages[n];
         }
-        surrogate /= batch.size();
-        // Restore original parameters.
-        actor.setParameters(current);
+        surrogate /= batchSize;
         return surrogate;
     }
 }
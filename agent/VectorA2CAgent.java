@@ -0,0 +1,102 @@
+package agent;
+
+import A2C.Actor;
+import A2C.Critic;
+import environment.VectorCartPole;
+import linalg.Precision;
+import util.RolloutBuffer;
+
+/**
+ * Synchronous A2C over N CartPole environments stepped in lockstep.
+ * Each step runs one batched actor forward and one batched critic forward for all
+ * environments; the probabilities and values are stored with the rollout and reused by the
+ * update, which is applied every nSteps steps as one batched gradient over nSteps * N rows
+ * with n-step bootstrapped returns.
+ */
+public class VectorA2CAgent {
+    private VectorCartPole env;
+    private Actor actor;
+    private Critic critic;
+    private double gamma;  // Discount factor
+    private int stateDim;
+    private int actionDim;
+    private int numEnvs;
+    private RolloutBuffer buffer; // nSteps x numEnvs, reused for every update
+
+    public VectorA2CAgent(VectorCartPole env, double gamma, double actorLr, double criticLr) {
+        this(env, gamma, actorLr, criticLr, 5);
+    }
+
+    /**
+     * @param nSteps number of lockstep steps per update; returns bootstrap from V after the last one.
+     */
+    public VectorA2CAgent(VectorCartPole env, double gamma, double actorLr, double criticLr, int nSteps) {
+        this(env, gamma, actorLr, criticLr, nSteps, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision storage precision of the actor and critic parameters and of the rollout.
+     */
+    public VectorA2CAgent(VectorCartPole env, double gamma, double actorLr, double criticLr, int nSteps,
+                          Precision precision) {
+        this.env = env;
+        this.gamma = gamma;
+        // For CartPole, state dimension is 4 and there are 2 actions.
+        this.stateDim = 4;
+        this.actionDim = 2;
+        this.numEnvs = env.getNumEnvs();
+        actor = new Actor(stateDim, actionDim, actorLr, precision);
+        critic = new Critic(stateDim, criticLr, precision);
+        buffer = new RolloutBuffer(nSteps, numEnvs, stateDim, actionDim, precision);
+    }
+
+    /**
+     * Trains until the given number of episodes, summed over all environments, have finished.
+     */
+    public void train(int episodes) {
+        // Per-step batches, one row per environment, reused across steps.
+        double[] states = new double[numEnvs * stateDim];
+        double[] probs = new double[numEnvs * actionDim];
+        double[] values = new double[numEnvs];
+        int[] actions = new int[numEnvs];
+        double[] rewards = new double[numEnvs];
+        boolean[] dones = new boolean[numEnvs];
+        double[] totalRewards = new double[numEnvs];
+        int episode = 0;
+
+        env.getObservations(states);
+        while (episode < episodes) {
+            buffer.clear();
+            while (!buffer.isFull()) {
+                // One batched forward each for the actor and the critic.
+                actor.selectActions(states, numEnvs, actions, probs);
+                critic.values(states, numEnvs, values);
+                buffer.recordAll(states, actions, probs, null, values);
+
+                // Finished environments are reset by the vector environment.
+                env.step(actions, rewards, dones);
+                buffer.recordOutcomes(rewards, dones);
+                buffer.advance();
+                env.getObservations(states);
+
+                for (int i = 0; i < numEnvs; i++) {
+                    totalRewards[i] += rewards[i];
+                    if (dones[i]) {
+                        System.out.println("Episode " + episode + ": Total Reward = " + totalRewards[i]);
+                        episode++;
+                        totalRewards[i] = 0.0;
+                    }
+                }
+            }
+
+            // Bootstrap from V of the states reached; ignored where an episode just ended.
+            critic.values(states, numEnvs, values);
+            buffer.computeAdvantages(gamma, 1.0, values);
+
+            // Update Critic and Actor with one batched gradient each.
+            critic.updateBatch(buffer);
+            actor.updateBatch(buffer);
+            actor.publish();
+        }
+    }
+}
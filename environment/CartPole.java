@@ -17,19 +17,19 @@ public class CartPole extends Environment<ContinousState, Integer> {
 
     }
 
-    // Physical constants
-    private static final double GRAVITY = 9.8;
-    private static final double MASS_CART = 1.0;
-    private static final double MASS_POLE = 0.1;
-    private static final double TOTAL_MASS = MASS_CART + MASS_POLE;
-    private static final double LENGTH = 0.5; // half the pole length
-    private static final double POLEMASS_LENGTH = MASS_POLE * LENGTH;
-    private static final double FORCE_MAG = 10.0;
-    private static final double TAU = 0.02; // time step (seconds)
+    // Physical constants (package-private so VectorCartPole shares the same dynamics)
+    static final double GRAVITY = 9.8;
+    static final double MASS_CART = 1.0;
+    static final double MASS_POLE = 0.1;
+    static final double TOTAL_MASS = MASS_CART + MASS_POLE;
+    static final double LENGTH = 0.5; // half the pole length
+    static final double POLEMASS_LENGTH = MASS_POLE * LENGTH;
+    static final double FORCE_MAG = 10.0;
+    static final double TAU = 0.02; // time step (seconds)
 
     // Termination thresholds
-    private static final double X_THRESHOLD = 2.4;
-    private static final double THETA_THRESHOLD_RADIANS = 15 * Math.PI / 180;
+    static final double X_THRESHOLD = 2.4;
+    static final double THETA_THRESHOLD_RADIANS = 15 * Math.PI / 180;
 
     private double[] state;
     private boolean done;
@@ -42,22 +42,55 @@ public class CartPole extends Environment<ContinousState, Integer> {
 
     @Override
     public double[] reset() {
-        state = new double[4];
+        resetState();
+        return state.clone();
+    }
+
+    @Override
+    public void reset(double[] out) {
+        resetState();
+        System.arraycopy(state, 0, out, 0, 4);
+    }
+
+    // Re-initializes the internal state array in place.
+    private void resetState() {
+        if (state == null) {
+            state = new double[4];
+        }
         // Initialize state with small random values near 0.
         state[0] = random.nextDouble() * 0.08 - 0.04; // cart position
         state[1] = random.nextDouble() * 0.08 - 0.04; // cart velocity
         state[2] = random.nextDouble() * 0.08 - 0.04; // pole angle
         state[3] = random.nextDouble() * 0.08 - 0.04; // pole angular velocity
         done = false;
-        return state.clone();
     }
 
     @Override
     public StepResult<double[]> step(Integer action) {
         if (done) {
-            return new StepResult<>(state, 0, true);
+            return new StepResult<>(state.clone(), 0, true);
         }
+        double reward = advance(action);
+        return new StepResult<>(state.clone(), reward, done);
+    }
+
+    @Override
+    public double step(Integer action, double[] nextStateOut) {
+        return step(action.intValue(), nextStateOut);
+    }
 
+    /**
+     * Allocation-free step: writes the next state into nextStateOut and returns the reward.
+     * The done flag can be read from {@link #isDone()} afterwards.
+     */
+    public double step(int action, double[] nextStateOut) {
+        double reward = done ? 0.0 : advance(action);
+        System.arraycopy(state, 0, nextStateOut, 0, 4);
+        return reward;
+    }
+
+    // Advances the simulation by one time step and returns the reward.
+    private double advance(int action) {
         // Interpret the action: 0 = left force, 1 = right force.
         double force = (action == 1) ? FORCE_MAG : -FORCE_MAG;
         double x = state[0];
@@ -90,9 +123,7 @@ public class CartPole extends Environment<ContinousState, Integer> {
                 theta < -THETA_THRESHOLD_RADIANS || theta > THETA_THRESHOLD_RADIANS);
 
         // Reward of 1 for each time step until termination.
-        double reward = done ? 0.0 : 1.0;
-
-        return new StepResult<>(state.clone(), reward, done);
+        return done ? 0.0 : 1.0;
     }
 
     @Override
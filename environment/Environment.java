@@ -29,6 +29,23 @@ public abstract class Environment<S extends State, A> {
      */
     public abstract StepResult<S> step(A action);
 
+    /**
+     * Allocation-free variant of {@link #reset()}.
+     * Writes the initial observation into the supplied array instead of returning a new one.
+     * @param out the array receiving the initial observation.
+     */
+    public abstract void reset(double[] out);
+
+    /**
+     * Allocation-free variant of {@link #step(Object)}.
+     * Writes the next observation into the supplied array and returns the reward;
+     * the done flag is available afterwards through {@link #isDone()}.
+     * @param action the action to take.
+     * @param nextStateOut the array receiving the next observation.
+     * @return the reward for this step.
+     */
+    public abstract double step(A action, double[] nextStateOut);
+
     /**
      * Checks if the environment has reached a terminal state.
      * @return true if the episode is over; false otherwise.
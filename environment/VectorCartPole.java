@@ -0,0 +1,146 @@
+package environment;
+
+import java.util.Random;
+
+import static environment.CartPole.*;
+
+/**
+ * Steps N independent CartPole simulations at once.
+ * The state of every environment is kept in struct-of-arrays form:
+ * four primitive arrays holding x, x_dot, theta and theta_dot.
+ * Finished environments are reset automatically, so callers never see a done environment
+ * on the next step. Rewards and done flags are written into caller-supplied arrays,
+ * which keeps the stepping loop free of allocations.
+ */
+public class VectorCartPole {
+    private final int numEnvs;
+
+    // State columns, one slot per environment.
+    private final double[] x;
+    private final double[] xDot;
+    private final double[] theta;
+    private final double[] thetaDot;
+
+    private final Random random;
+
+    public VectorCartPole(int numEnvs) {
+        this(numEnvs, new Random());
+    }
+
+    public VectorCartPole(int numEnvs, Random random) {
+        if (numEnvs <= 0) {
+            throw new IllegalArgumentException("Error: the number of environments must be positive");
+        }
+        this.numEnvs = numEnvs;
+        this.random = random;
+        x = new double[numEnvs];
+        xDot = new double[numEnvs];
+        theta = new double[numEnvs];
+        thetaDot = new double[numEnvs];
+        reset();
+    }
+
+    /**
+     * Resets every environment to a small random state near 0.
+     */
+    public void reset() {
+        for (int i = 0; i < numEnvs; i++) {
+            resetEnv(i);
+        }
+    }
+
+    // Same initial distribution as CartPole.reset().
+    private void resetEnv(int i) {
+        x[i] = random.nextDouble() * 0.08 - 0.04;
+        xDot[i] = random.nextDouble() * 0.08 - 0.04;
+        theta[i] = random.nextDouble() * 0.08 - 0.04;
+        thetaDot[i] = random.nextDouble() * 0.08 - 0.04;
+    }
+
+    /**
+     * Applies one action to each environment.
+     * An environment that terminates gets reward 0 and done = true, and is reset in place,
+     * so the observation read afterwards is the first state of its next episode.
+     *
+     * @param actions one action per environment: 0 for left force, 1 for right force.
+     * @param rewards output array receiving one reward per environment.
+     * @param dones output array receiving one done flag per environment.
+     */
+    public void step(int[] actions, double[] rewards, boolean[] dones) {
+        // Euler update over all environments. Kept free of branches other than the
+        // force select so the loop body stays straight-line code for the JIT.
+        for (int i = 0; i < numEnvs; i++) {
+            double force = (actions[i] == 1) ? FORCE_MAG : -FORCE_MAG;
+            double th = theta[i];
+            double thDot = thetaDot[i];
+
+            double costheta = Math.cos(th);
+            double sintheta = Math.sin(th);
+
+            double temp = (force + POLEMASS_LENGTH * thDot * thDot * sintheta) / TOTAL_MASS;
+            double thetaacc = (GRAVITY * sintheta - costheta * temp)
+                    / (LENGTH * (4.0/3.0 - MASS_POLE * costheta * costheta / TOTAL_MASS));
+            double xacc = temp - POLEMASS_LENGTH * thetaacc * costheta / TOTAL_MASS;
+
+            x[i] += TAU * xDot[i];
+            xDot[i] += TAU * xacc;
+            theta[i] = th + TAU * thDot;
+            thetaDot[i] = thDot + TAU * thetaacc;
+        }
+
+        // Termination check, reward and auto-reset.
+        for (int i = 0; i < numEnvs; i++) {
+            boolean done = (x[i] < -X_THRESHOLD || x[i] > X_THRESHOLD ||
+                    theta[i] < -THETA_THRESHOLD_RADIANS || theta[i] > THETA_THRESHOLD_RADIANS);
+            dones[i] = done;
+            rewards[i] = done ? 0.0 : 1.0;
+            if (done) {
+                resetEnv(i);
+            }
+        }
+    }
+
+    /**
+     * Copies the current observations into a row-major [numEnvs x 4] array.
+     * @param out array of length at least numEnvs * 4.
+     */
+    public void getObservations(double[] out) {
+        for (int i = 0; i < numEnvs; i++) {
+            int base = i * 4;
+            out[base] = x[i];
+            out[base + 1] = xDot[i];
+            out[base + 2] = theta[i];
+            out[base + 3] = thetaDot[i];
+        }
+    }
+
+    /**
+     * Copies the current observations column-major ([4 x numEnvs]): x of every environment,
+     * then x_dot, theta and theta_dot. This is the struct-of-arrays layout the state is kept
+     * in, so it is four array copies, and it is the layout
+     * {@link space.Discretizer#indexBatchColumns} reads with unit-stride loops.
+     * @param out array of length at least 4 * numEnvs.
+     */
+    public void getObservationColumns(double[] out) {
+        System.arraycopy(x, 0, out, 0, numEnvs);
+        System.arraycopy(xDot, 0, out, numEnvs, numEnvs);
+        System.arraycopy(theta, 0, out, 2 * numEnvs, numEnvs);
+        System.arraycopy(thetaDot, 0, out, 3 * numEnvs, numEnvs);
+    }
+
+    /**
+     * Copies the current observation of a single environment.
+     * @param env index of the environment.
+     * @param out array of length at least 4.
+     */
+    public void getObservation(int env, double[] out) {
+        out[0] = x[env];
+        out[1] = xDot[env];
+        out[2] = theta[env];
+        out[3] = thetaDot[env];
+    }
+
+    public int getNumEnvs() {
+        return numEnvs;
+    }
+}
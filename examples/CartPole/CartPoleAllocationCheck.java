@@ -0,0 +1,65 @@
+package examples.CartPole;
+
+import environment.CartPole;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the out-parameter step/reset API of CartPole does not allocate.
+ * Uses the per-thread allocation counter of the HotSpot ThreadMXBean and exits
+ * with a non-zero status if any bytes were allocated per step after warm-up.
+ */
+public class CartPoleAllocationCheck {
+    public static void main(String[] args) {
+        int warmupSteps = 200_000;
+        int measuredSteps = 1_000_000;
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocation counters are not supported on this JVM.");
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        CartPole env = new CartPole();
+        double[] state = new double[4];
+
+        // Warm up so the loop is JIT-compiled before measuring.
+        run(env, state, warmupSteps);
+
+        // The counter query itself may allocate, so measure an empty interval as the baseline.
+        long baselineStart = threadBean.getThreadAllocatedBytes(threadId);
+        long baselineEnd = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = baselineEnd - baselineStart;
+
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        double totalReward = run(env, state, measuredSteps);
+        long end = threadBean.getThreadAllocatedBytes(threadId);
+
+        long allocated = Math.max(0, end - start - overhead);
+        System.out.println("Steps: " + measuredSteps + ", total reward: " + totalReward);
+        System.out.println("Bytes allocated: " + allocated
+                + " (" + ((double) allocated / measuredSteps) + " per step)");
+        if (allocated > 0) {
+            System.out.println("FAILED: step/reset allocated memory.");
+            System.exit(1);
+        }
+        System.out.println("OK: zero bytes allocated per step.");
+    }
+
+    // Steps the environment with alternating actions, resetting whenever an episode ends.
+    private static double run(CartPole env, double[] state, int steps) {
+        double totalReward = 0.0;
+        env.reset(state);
+        for (int i = 0; i < steps; i++) {
+            int action = state[2] > 0 ? 1 : 0;
+            totalReward += env.step(action, state);
+            if (env.isDone()) {
+                env.reset(state);
+            }
+        }
+        return totalReward;
+    }
+}
@@ -2,7 +2,6 @@ package examples.CartPole;
 
 import agent.QLearningAgent;
 import environment.CartPole;
-import environment.StepResult;
 import policy.EpsilonGreedyPolicy;
 
 /**
@@ -23,8 +22,12 @@ public class CartPoleExample {
         // Create a Q-learning agent with learning rate 0.1, discount factor 0.99, and 2 actions (left/right).
         QLearningAgent agent = new QLearningAgent(0.1, 0.99, policy, 2);
 
+        // State buffers are reused across steps and swapped after each transition.
+        double[] state = new double[4];
+        double[] nextState = new double[4];
+
         for (int episode = 1; episode <= episodes; episode++) {
-            double[] state = env.reset();
+            env.reset(state);
             double totalReward = 0;
 
             for (int step = 0; step < maxSteps; step++) {
@@ -32,15 +35,15 @@ public class CartPoleExample {
                 int action = agent.chooseAction(state);
 
                 // The environment processes the action.
-                StepResult<double[]> result = env.step(action);
-                double reward = result.getReward();
-                double[] nextState = result.getNextState();
-                boolean done = result.isDone();
+                double reward = env.step(action, nextState);
+                boolean done = env.isDone();
 
                 // Agent learns from the experience.
                 agent.learn(state, action, reward, nextState, done);
 
+                double[] tmp = state;
                 state = nextState;
+                nextState = tmp;
                 totalReward += reward;
 
                 if (done) {
@@ -2,7 +2,6 @@ package examples.CartPole;
 
 import agent.QLearningAgent;
 import environment.CartPole;
-import environment.StepResult;
 import policy.EpsilonGreedyPolicy;
 
 import javax.swing.*;
@@ -31,22 +30,26 @@ public class CartPoleExampleWithVisualization {
         QLearningAgent agent = new QLearningAgent(0.1, 0.99, policy, 2);
 
 
+        // State buffers are reused across steps and swapped after each transition.
+        double[] state = new double[4];
+        double[] nextState = new double[4];
+
         for (int episode = 1; episode <= totalEpisodes; episode++) {
             // Reset the environment.
-            double[] state = env.reset();
+            env.reset(state);
             double episodeReward = 0.0;
 
             // Run one training episode.
             for (int step = 0; step < maxSteps; step++) {
                 int action = agent.chooseAction(state);
-                StepResult<double[]> result = env.step(action);
-                double reward = result.getReward();
-                double[] nextState = result.getNextState();
-                boolean done = result.isDone();
+                double reward = env.step(action, nextState);
+                boolean done = env.isDone();
 
                 agent.learn(state, action, reward, nextState, done);
 
+                double[] tmp = state;
                 state = nextState;
+                nextState = tmp;
                 episodeReward += reward;
 
                 if (done) {
@@ -114,8 +117,7 @@ public class CartPoleExampleWithVisualization {
                 } else {
                     // Let the agent choose an action for the current state.
                     int action = agent.chooseAction(stateHolder[0]);
-                    StepResult<double[]> result = demoEnv.step(action);
-                    stateHolder[0] = result.getNextState();
+                    demoEnv.step(action, stateHolder[0]);
                     // Update the visualizer with the current cart position (index 0) and pole angle (index 2).
                     demoVisualizer.updateState(stateHolder[0][0], stateHolder[0][2]);
                     step++;
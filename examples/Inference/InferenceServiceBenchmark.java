@@ -0,0 +1,85 @@
+package examples.Inference;
+
+import A2C.Activation;
+import A2C.InferenceService;
+import A2C.MLP;
+import A2C.PPOActor;
+import A2C.PolicySnapshot;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs many caller threads that each ask for one action at a time, first calling the
+ * published snapshot directly and then going through an {@link InferenceService}, and prints
+ * the throughput, the p50/p99 latency and the batch-size histogram of the service.
+ * The callers are platform threads, since virtual threads are not available on Java 17;
+ * the service itself does not depend on which kind of thread calls it.
+ */
+public class InferenceServiceBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int callers = 256;
+        int requestsPerCaller = 2_000;
+        PPOActor actor = new PPOActor(new MLP(4, new int[]{64, 64}, 2, Activation.RELU, new Random(7)), 0.01);
+        actor.publish();
+
+        for (int round = 0; round < 2; round++) { // the first round warms up the JIT
+            long directNanos = run(callers, requestsPerCaller, state -> {
+                PolicySnapshot snapshot = actor.getSnapshot();
+                double[] probs = new double[snapshot.getActionDim()];
+                snapshot.forward(state, probs);
+            });
+            try (InferenceService service = new InferenceService(actor::getSnapshot, 64, 200_000)) {
+                long batchedNanos = run(callers, requestsPerCaller, state -> service.selectAction(state).join());
+                double requests = (double) callers * requestsPerCaller;
+                System.out.printf("direct  %8.0f requests/s%n", requests / (directNanos / 1e9));
+                System.out.printf("batched %8.0f requests/s, p50 %.1f us, p99 %.1f us%n",
+                        requests / (batchedNanos / 1e9),
+                        service.getLatencyPercentile(0.5) / 1e3, service.getLatencyPercentile(0.99) / 1e3);
+                long[] sizes = service.getBatchSizeCounts();
+                StringBuilder histogram = new StringBuilder("batch sizes:");
+                for (int n = 1; n < sizes.length; n++) {
+                    if (sizes[n] > 0) {
+                        histogram.append(' ').append(n).append('x').append(sizes[n]);
+                    }
+                }
+                System.out.println(histogram);
+            }
+        }
+    }
+
+    private interface Call {
+        void accept(double[] state);
+    }
+
+    // Starts the callers together and returns the wall time until all have finished.
+    private static long run(int callers, int requestsPerCaller, Call call) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[callers];
+        for (int c = 0; c < callers; c++) {
+            long seed = c;
+            threads[c] = new Thread(() -> {
+                Random random = new Random(seed);
+                double[] state = new double[4];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int r = 0; r < requestsPerCaller; r++) {
+                    for (int i = 0; i < state.length; i++) {
+                        state[i] = random.nextDouble() * 0.1 - 0.05;
+                    }
+                    call.accept(state);
+                }
+            });
+            threads[c].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+}
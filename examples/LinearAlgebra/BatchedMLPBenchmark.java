@@ -0,0 +1,332 @@
+package examples.LinearAlgebra;
+
+import A2C.Activation;
+import A2C.MLP;
+import A2C.TRPOActor;
+import linalg.Blas;
+import linalg.Precision;
+import util.RolloutBuffer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the blocked matrix kernels and the batched MLP passes against the scalar
+ * per-state path, and the float32 passes of a network stored as float against the same
+ * network stored as double. Then times the scalar and batched double paths at batch sizes
+ * 64 to 4096, and double against float storage on a CartPole-sized network and on a wide
+ * one whose rollout does not fit in cache. Exits with a non-zero status if any double
+ * result differs by more than 1e-9, or any float result by more than 1e-4.
+ */
+public class BatchedMLPBenchmark {
+    private static final double TOLERANCE = 1e-9;
+    private static final double FLOAT_TOLERANCE = 1e-4;
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        boolean ok = checkKernels(random) & checkMLP(random) & checkFloatMLP(random) & checkFloatTRPO(random);
+        if (!ok) {
+            System.exit(1);
+        }
+        // ReLU keeps the timing about the matrix products rather than Math.tanh.
+        int[] hidden = {64, 64};
+        for (int batch = 64; batch <= 4096; batch *= 4) {
+            benchmark(new MLP(4, hidden, 2, Activation.RELU, random), batch, random);
+        }
+        benchmarkPrecision(4, hidden, 2, 4096);
+        benchmarkPrecision(512, new int[]{256}, 8, 8192);
+    }
+
+    private static boolean checkKernels(Random random) {
+        int m = 37, n = 301, k = 129; // not multiples of the block sizes
+        double[] a = randomArray(m * k, random);
+        double[] b = randomArray(k * n, random);
+        double[] bt = randomArray(n * k, random);
+        double[] at = randomArray(k * m, random);
+        double[] c = randomArray(m * n, random);
+        double[] expected = new double[m * n];
+
+        // C = 0.5 * A * B + 2 * C
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0.0;
+                for (int p = 0; p < k; p++) {
+                    sum += a[i * k + p] * b[p * n + j];
+                }
+                expected[i * n + j] = 0.5 * sum + 2 * c[i * n + j];
+            }
+        }
+        double[] actual = c.clone();
+        Blas.gemm(m, n, k, 0.5, a, 0, k, b, 0, n, 2.0, actual, 0, n);
+        boolean ok = report("gemm", maxDiff(expected, actual));
+
+        // C = A * Bt^T
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0.0;
+                for (int p = 0; p < k; p++) {
+                    sum += a[i * k + p] * bt[j * k + p];
+                }
+                expected[i * n + j] = sum;
+            }
+        }
+        actual = c.clone();
+        Blas.gemmNT(m, n, k, 1.0, a, 0, k, bt, 0, k, 0.0, actual, 0, n);
+        ok &= report("gemmNT", maxDiff(expected, actual));
+
+        // C = At^T * B + C
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0.0;
+                for (int p = 0; p < k; p++) {
+                    sum += at[p * m + i] * b[p * n + j];
+                }
+                expected[i * n + j] = sum + c[i * n + j];
+            }
+        }
+        actual = c.clone();
+        Blas.gemmTN(m, n, k, 1.0, at, 0, m, b, 0, n, 1.0, actual, 0, n);
+        ok &= report("gemmTN", maxDiff(expected, actual));
+        return ok;
+    }
+
+    private static boolean checkMLP(Random random) {
+        MLP mlp = new MLP(4, new int[]{16, 8}, 3, Activation.TANH, random);
+        int batch = 50;
+        double[] inputs = randomArray(batch * 4, random);
+        double[] dOut = randomArray(batch * 3, random);
+        int dim = mlp.getParameterStorage().size();
+
+        double[] expectedOut = new double[batch * 3];
+        double[] expectedGrad = new double[dim];
+        double[] row = new double[4];
+        double[] rowOut = new double[3];
+        double[] rowDOut = new double[3];
+        for (int n = 0; n < batch; n++) {
+            System.arraycopy(inputs, n * 4, row, 0, 4);
+            System.arraycopy(dOut, n * 3, rowDOut, 0, 3);
+            mlp.forward(row, rowOut);
+            System.arraycopy(rowOut, 0, expectedOut, n * 3, 3);
+            mlp.backward(row, rowDOut, 0.25, expectedGrad);
+        }
+
+        double[] out = new double[batch * 3];
+        double[] grad = new double[dim];
+        mlp.forwardBatch(mlp.getParameters(), inputs, batch, out);
+        mlp.backwardBatch(inputs, batch, dOut, 0.25, grad);
+        boolean ok = report("MLP forwardBatch", maxDiff(expectedOut, out));
+        return ok & report("MLP backwardBatch", maxDiff(expectedGrad, grad));
+    }
+
+    // Every float pass of a float network against the double network with the same initial weights.
+    private static boolean checkFloatMLP(Random random) {
+        long seed = random.nextLong();
+        MLP mlp = new MLP(4, new int[]{16, 8}, 3, Activation.TANH, new Random(seed));
+        MLP floatMlp = new MLP(4, new int[]{16, 8}, 3, Activation.TANH, new Random(seed), Precision.FLOAT);
+        // Compare both on the float weights, so only the arithmetic differs.
+        mlp.getParameterStorage().copyFrom(floatMlp.getFloatParameters());
+        int batch = 50;
+        int dim = mlp.getParameterStorage().size();
+        float[] floatInputs = new float[batch * 4];
+        Blas.toFloat(randomArray(batch * 4, random), 0, floatInputs, 0, batch * 4);
+        double[] inputs = new double[batch * 4];
+        for (int k = 0; k < inputs.length; k++) {
+            inputs[k] = floatInputs[k];
+        }
+        double[] dOut = randomArray(batch * 3, random);
+        double[] v = randomArray(dim, random);
+
+        double[] expectedOut = new double[batch * 3];
+        double[] expectedGrad = new double[dim];
+        double[] out = new double[batch * 3];
+        double[] grad = new double[dim];
+        mlp.forwardBatch(mlp.getParameters(), inputs, batch, expectedOut);
+        mlp.backwardBatch(inputs, batch, dOut, 0.25, expectedGrad);
+        floatMlp.forwardBatch(floatMlp.getFloatParameters(), floatInputs, 0, batch, out);
+        floatMlp.backwardBatch(floatMlp.getFloatParameters(), floatInputs, 0, batch, dOut, 0.25, grad);
+        boolean ok = report("float forwardBatch", maxDiff(expectedOut, out), FLOAT_TOLERANCE);
+        ok &= report("float backwardBatch", maxDiff(expectedGrad, grad), FLOAT_TOLERANCE);
+
+        mlp.jvpBatch(inputs, 0, batch, v, expectedOut);
+        floatMlp.jvpBatch(floatInputs, 0, batch, v, out);
+        ok &= report("float jvpBatch", maxDiff(expectedOut, out), FLOAT_TOLERANCE);
+
+        double[] expectedSquares = new double[dim];
+        double[] squares = new double[dim];
+        mlp.squaredGradientBatch(inputs, 0, batch, dOut, 0.25, expectedSquares);
+        floatMlp.squaredGradientBatch(floatInputs, 0, batch, dOut, 0.25, squares);
+        ok &= report("float squaredGrad", maxDiff(expectedSquares, squares), FLOAT_TOLERANCE);
+
+        // A single-state step applied in place to the float parameters.
+        double[] row = new double[4];
+        double[] rowDOut = new double[3];
+        System.arraycopy(inputs, 0, row, 0, 4);
+        System.arraycopy(dOut, 0, rowDOut, 0, 3);
+        mlp.forward(row, expectedOut);
+        floatMlp.forward(row, out);
+        ok &= report("float forward", maxDiff(expectedOut, out), FLOAT_TOLERANCE);
+        double[] expectedTheta = mlp.getParameterStorage().toArray();
+        mlp.backward(row, rowDOut, 0.25, expectedTheta);
+        floatMlp.backward(row, rowDOut, 0.25, floatMlp.getFloatParameters());
+        return ok & report("float backward", maxDiff(expectedTheta, floatMlp.getParameterStorage().toArray()),
+                FLOAT_TOLERANCE);
+    }
+
+    // The TRPO reductions over a float rollout against the same rollout stored as double.
+    private static boolean checkFloatTRPO(Random random) {
+        long seed = random.nextLong();
+        MLP model = new MLP(4, new int[]{32}, 3, Activation.TANH, new Random(seed));
+        MLP floatModel = new MLP(4, new int[]{32}, 3, Activation.TANH, new Random(seed), Precision.FLOAT);
+        model.getParameterStorage().copyFrom(floatModel.getFloatParameters());
+        TRPOActor actor = new TRPOActor(model);
+        TRPOActor floatActor = new TRPOActor(floatModel);
+        int rows = 600; // more than one reduction chunk
+        RolloutBuffer buffer = fillRollout(actor, Precision.DOUBLE, rows, new Random(seed));
+        RolloutBuffer floatBuffer = fillRollout(actor, Precision.FLOAT, rows, new Random(seed));
+        int dim = actor.getParameterDimension();
+        double[] v = randomArray(dim, random);
+
+        boolean ok = report("float policy grad", maxDiff(actor.computePolicyGradient(buffer),
+                floatActor.computePolicyGradient(floatBuffer)), FLOAT_TOLERANCE);
+        ok &= report("float KL", Math.abs(actor.computeAverageKL(buffer) - floatActor.computeAverageKL(floatBuffer)),
+                FLOAT_TOLERANCE);
+        ok &= report("float FVP", maxDiff(actor.fisherVectorProduct(v, buffer),
+                floatActor.fisherVectorProduct(v, floatBuffer)), FLOAT_TOLERANCE);
+        double[] expectedDiagonal = new double[dim];
+        double[] diagonal = new double[dim];
+        actor.fisherDiagonal(buffer, expectedDiagonal);
+        floatActor.fisherDiagonal(floatBuffer, diagonal);
+        return ok & report("float Fisher diag", maxDiff(expectedDiagonal, diagonal), FLOAT_TOLERANCE);
+    }
+
+    // A rollout of random states acted on by the actor, with random advantages. The states are
+    // exact in float, so both precisions store the same rollout up to the rounded probabilities.
+    private static RolloutBuffer fillRollout(TRPOActor actor, Precision precision, int rows, Random random) {
+        RolloutBuffer buffer = new RolloutBuffer(rows, 1, 4, 3, precision);
+        double[] state = new double[4];
+        double[] probs = new double[3];
+        for (int n = 0; n < rows; n++) {
+            for (int j = 0; j < 4; j++) {
+                state[j] = (float) (random.nextDouble() * 2 - 1);
+            }
+            actor.getPolicy().forward(state, probs);
+            int action = random.nextInt(3);
+            buffer.record(0, state, action, probs, Math.log(probs[action]), 0.0);
+            buffer.recordOutcome(0, random.nextDouble() * 2 - 1, random.nextInt(20) == 0);
+            buffer.advance();
+        }
+        buffer.computeAdvantages(0.99, 0.95, new double[1]);
+        return buffer;
+    }
+
+    private static void benchmark(MLP mlp, int batch, Random random) {
+        double[] inputs = randomArray(batch * 4, random);
+        double[] dOut = randomArray(batch * 2, random);
+        double[] out = new double[batch * 2];
+        double[] grad = new double[mlp.getParameterStorage().size()];
+        double[] row = new double[4];
+        double[] rowOut = new double[2];
+        double[] rowDOut = new double[2];
+        int repeats = Math.max(10, 200_000 / batch);
+
+        long scalarNanos = Long.MAX_VALUE;
+        long batchedNanos = Long.MAX_VALUE;
+        // Several rounds, keeping the best, so both paths are measured after JIT compilation.
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                for (int n = 0; n < batch; n++) {
+                    System.arraycopy(inputs, n * 4, row, 0, 4);
+                    System.arraycopy(dOut, n * 2, rowDOut, 0, 2);
+                    mlp.forward(row, rowOut);
+                    mlp.backward(row, rowDOut, 1.0, grad);
+                }
+            }
+            scalarNanos = Math.min(scalarNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                mlp.forwardBatch(mlp.getParameters(), inputs, batch, out);
+                mlp.backwardBatch(inputs, batch, dOut, 1.0, grad);
+            }
+            batchedNanos = Math.min(batchedNanos, System.nanoTime() - start);
+        }
+
+        double samples = (double) repeats * batch;
+        System.out.printf("batch %5d: scalar %7.1f ns/state, batched %7.1f ns/state (%.2fx)%n",
+                batch, scalarNanos / samples, batchedNanos / samples, (double) scalarNanos / batchedNanos);
+    }
+
+    // Times a batched forward and backward pass over a rollout of the given size with the
+    // parameters and rollout stored as double, then as float.
+    private static void benchmarkPrecision(int inputDim, int[] hidden, int outputDim, int batch) {
+        MLP mlp = new MLP(inputDim, hidden, outputDim, Activation.RELU, new Random(1));
+        MLP floatMlp = new MLP(inputDim, hidden, outputDim, Activation.RELU, new Random(1), Precision.FLOAT);
+        Random random = new Random(2);
+        double[] inputs = randomArray(batch * inputDim, random);
+        float[] floatInputs = new float[inputs.length];
+        Blas.toFloat(inputs, 0, floatInputs, 0, inputs.length);
+        double[] dOut = randomArray(batch * outputDim, random);
+        double[] out = new double[batch * outputDim];
+        double[] grad = new double[mlp.getParameterStorage().size()];
+        float[] floatTheta = floatMlp.getFloatParameters();
+        long flops = 0;
+        int in = inputDim;
+        for (int h : hidden) {
+            flops += (long) in * h;
+            in = h;
+        }
+        flops = 6 * batch * (flops + (long) in * outputDim); // forward, propagation and weight gradient
+        int repeats = (int) Math.max(3, 4_000_000_000L / flops);
+
+        long doubleNanos = Long.MAX_VALUE;
+        long floatNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                mlp.forwardBatch(mlp.getParameters(), inputs, batch, out);
+                mlp.backwardBatch(inputs, batch, dOut, 1.0, grad);
+            }
+            doubleNanos = Math.min(doubleNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                floatMlp.forwardBatch(floatTheta, floatInputs, 0, batch, out);
+                floatMlp.backwardBatch(floatTheta, floatInputs, 0, batch, dOut, 1.0, grad);
+            }
+            floatNanos = Math.min(floatNanos, System.nanoTime() - start);
+        }
+
+        double passes = repeats;
+        System.out.printf("%d-%s-%d, batch %d (%.1f MB of double states): double %.2f ms, float %.2f ms "
+                        + "per pass (%.2fx)%n", inputDim, Arrays.toString(hidden), outputDim, batch,
+                batch * inputDim * 8 / 1e6, doubleNanos / passes / 1e6, floatNanos / passes / 1e6,
+                (double) doubleNanos / floatNanos);
+    }
+
+    private static boolean report(String name, double diff) {
+        return report(name, diff, TOLERANCE);
+    }
+
+    private static boolean report(String name, double diff, double tolerance) {
+        boolean ok = diff <= tolerance;
+        System.out.printf("%-20s max |diff| = %.3e %s%n", name, diff, ok ? "OK" : "FAILED");
+        return ok;
+    }
+
+    private static double maxDiff(double[] expected, double[] actual) {
+        double max = 0.0;
+        for (int i = 0; i < expected.length; i++) {
+            max = Math.max(max, Math.abs(expected[i] - actual[i]));
+        }
+        return max;
+    }
+
+    private static double[] randomArray(int length, Random random) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble() * 2 - 1;
+        }
+        return values;
+    }
+}
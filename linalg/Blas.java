@@ -0,0 +1,395 @@
+package linalg;
+
+import java.util.Arrays;
+
+/**
+ * Dense matrix kernels on row-major double[] and float[] matrices.
+ * Each matrix is given as (array, offset, leading dimension), so sub-matrices and
+ * matrices packed inside larger parameter vectors can be used without copying.
+ * <p>
+ * The kernels are cache-blocked and arranged so that the innermost loop is always a
+ * contiguous update of a row of C from four rows of B, which HotSpot's C2 compiler
+ * turns into SIMD instructions (superword vectorization). The summation order is fixed
+ * by the loop structure, so results do not depend on JIT decisions.
+ */
+public final class Blas {
+    // Block sizes chosen so that one block of B (K_BLOCK x N_BLOCK doubles = 128 KB) stays in L2.
+    private static final int K_BLOCK = 64;
+    private static final int N_BLOCK = 256;
+    private static final int M_BLOCK = 64;
+
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[1][0]);
+    private static final ThreadLocal<float[][]> FLOAT_SCRATCH = ThreadLocal.withInitial(() -> new float[1][0]);
+
+    private Blas() {
+    }
+
+    /**
+     * C = alpha * A * B + beta * C, with A [m x k], B [k x n] and C [m x n].
+     */
+    public static void gemm(int m, int n, int k, double alpha,
+                            double[] a, int aOff, int lda,
+                            double[] b, int bOff, int ldb,
+                            double beta,
+                            double[] c, int cOff, int ldc) {
+        scale(m, n, beta, c, cOff, ldc);
+        if (alpha == 0.0) {
+            return;
+        }
+        for (int i0 = 0; i0 < m; i0 += M_BLOCK) {
+            int i1 = Math.min(m, i0 + M_BLOCK);
+            for (int p0 = 0; p0 < k; p0 += K_BLOCK) {
+                int p1 = Math.min(k, p0 + K_BLOCK);
+                for (int j0 = 0; j0 < n; j0 += N_BLOCK) {
+                    int j1 = Math.min(n, j0 + N_BLOCK);
+                    for (int i = i0; i < i1; i++) {
+                        int cRow = cOff + i * ldc;
+                        int aRow = aOff + i * lda;
+                        int p = p0;
+                        // Four rows of B per pass, so each element of C is loaded and stored once per four products.
+                        for (; p + 3 < p1; p += 4) {
+                            double a0 = alpha * a[aRow + p];
+                            double a1 = alpha * a[aRow + p + 1];
+                            double a2 = alpha * a[aRow + p + 2];
+                            double a3 = alpha * a[aRow + p + 3];
+                            int b0 = bOff + p * ldb;
+                            int b1 = b0 + ldb;
+                            int b2 = b1 + ldb;
+                            int b3 = b2 + ldb;
+                            for (int j = j0; j < j1; j++) {
+                                c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+                            }
+                        }
+                        for (; p < p1; p++) {
+                            double aip = alpha * a[aRow + p];
+                            int bRow = bOff + p * ldb;
+                            for (int j = j0; j < j1; j++) {
+                                c[cRow + j] += aip * b[bRow + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * C = alpha * A * B^T + beta * C, with A [m x k], B [n x k] and C [m x n].
+     * This is the shape of a layer forward pass: inputs [batch x in] times weights [out x in]^T.
+     * B is transposed once into a per-thread scratch buffer so the main loop can use the
+     * vectorizable kernel of {@link #gemm}.
+     */
+    public static void gemmNT(int m, int n, int k, double alpha,
+                              double[] a, int aOff, int lda,
+                              double[] b, int bOff, int ldb,
+                              double beta,
+                              double[] c, int cOff, int ldc) {
+        double[] bt = scratch(k * n);
+        for (int j = 0; j < n; j++) {
+            int bRow = bOff + j * ldb;
+            for (int p = 0; p < k; p++) {
+                bt[p * n + j] = b[bRow + p];
+            }
+        }
+        gemm(m, n, k, alpha, a, aOff, lda, bt, 0, n, beta, c, cOff, ldc);
+    }
+
+    /**
+     * C = alpha * A^T * B + beta * C, with A [k x m], B [k x n] and C [m x n].
+     * This is the shape of a weight gradient: deltas [batch x out]^T times inputs [batch x in].
+     */
+    public static void gemmTN(int m, int n, int k, double alpha,
+                              double[] a, int aOff, int lda,
+                              double[] b, int bOff, int ldb,
+                              double beta,
+                              double[] c, int cOff, int ldc) {
+        scale(m, n, beta, c, cOff, ldc);
+        if (alpha == 0.0) {
+            return;
+        }
+        for (int i0 = 0; i0 < m; i0 += M_BLOCK) {
+            int i1 = Math.min(m, i0 + M_BLOCK);
+            for (int j0 = 0; j0 < n; j0 += N_BLOCK) {
+                int j1 = Math.min(n, j0 + N_BLOCK);
+                int p = 0;
+                for (; p + 3 < k; p += 4) {
+                    int a0 = aOff + p * lda;
+                    int a1 = a0 + lda;
+                    int a2 = a1 + lda;
+                    int a3 = a2 + lda;
+                    int b0 = bOff + p * ldb;
+                    int b1 = b0 + ldb;
+                    int b2 = b1 + ldb;
+                    int b3 = b2 + ldb;
+                    for (int i = i0; i < i1; i++) {
+                        double x0 = alpha * a[a0 + i];
+                        double x1 = alpha * a[a1 + i];
+                        double x2 = alpha * a[a2 + i];
+                        double x3 = alpha * a[a3 + i];
+                        int cRow = cOff + i * ldc;
+                        for (int j = j0; j < j1; j++) {
+                            c[cRow + j] += x0 * b[b0 + j] + x1 * b[b1 + j] + x2 * b[b2 + j] + x3 * b[b3 + j];
+                        }
+                    }
+                }
+                for (; p < k; p++) {
+                    int aRow = aOff + p * lda;
+                    int bRow = bOff + p * ldb;
+                    for (int i = i0; i < i1; i++) {
+                        double api = alpha * a[aRow + i];
+                        int cRow = cOff + i * ldc;
+                        for (int j = j0; j < j1; j++) {
+                            c[cRow + j] += api * b[bRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * y = alpha * A * x + beta * y, with A [m x n].
+     */
+    public static void gemv(int m, int n, double alpha,
+                            double[] a, int aOff, int lda,
+                            double[] x, int xOff,
+                            double beta,
+                            double[] y, int yOff) {
+        for (int i = 0; i < m; i++) {
+            int aRow = aOff + i * lda;
+            double sum = 0.0;
+            for (int j = 0; j < n; j++) {
+                sum += a[aRow + j] * x[xOff + j];
+            }
+            y[yOff + i] = alpha * sum + (beta == 0.0 ? 0.0 : beta * y[yOff + i]);
+        }
+    }
+
+    /**
+     * y = alpha * A^T * x + beta * y, with A [m x n].
+     */
+    public static void gemvT(int m, int n, double alpha,
+                             double[] a, int aOff, int lda,
+                             double[] x, int xOff,
+                             double beta,
+                             double[] y, int yOff) {
+        for (int j = 0; j < n; j++) {
+            y[yOff + j] = beta == 0.0 ? 0.0 : beta * y[yOff + j];
+        }
+        for (int i = 0; i < m; i++) {
+            double axi = alpha * x[xOff + i];
+            int aRow = aOff + i * lda;
+            for (int j = 0; j < n; j++) {
+                y[yOff + j] += axi * a[aRow + j];
+            }
+        }
+    }
+
+    /**
+     * Adds each row of the [m x n] matrix A to the length-n vector y (column sums).
+     */
+    public static void addRows(int m, int n, double alpha, double[] a, int aOff, int lda, double[] y, int yOff) {
+        for (int i = 0; i < m; i++) {
+            int aRow = aOff + i * lda;
+            for (int j = 0; j < n; j++) {
+                y[yOff + j] += alpha * a[aRow + j];
+            }
+        }
+    }
+
+    /**
+     * Dot product of two length-n vectors.
+     */
+    public static double dot(int n, double[] x, int xOff, double[] y, int yOff) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += x[xOff + i] * y[yOff + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Single-precision {@link #gemm}: C = alpha * A * B + beta * C.
+     * Twice as many elements fit in a cache line and a SIMD register as with double.
+     */
+    public static void gemm(int m, int n, int k, float alpha,
+                            float[] a, int aOff, int lda,
+                            float[] b, int bOff, int ldb,
+                            float beta,
+                            float[] c, int cOff, int ldc) {
+        scale(m, n, beta, c, cOff, ldc);
+        if (alpha == 0.0f) {
+            return;
+        }
+        for (int i0 = 0; i0 < m; i0 += M_BLOCK) {
+            int i1 = Math.min(m, i0 + M_BLOCK);
+            for (int p0 = 0; p0 < k; p0 += K_BLOCK) {
+                int p1 = Math.min(k, p0 + K_BLOCK);
+                for (int j0 = 0; j0 < n; j0 += N_BLOCK) {
+                    int j1 = Math.min(n, j0 + N_BLOCK);
+                    for (int i = i0; i < i1; i++) {
+                        int cRow = cOff + i * ldc;
+                        int aRow = aOff + i * lda;
+                        int p = p0;
+                        for (; p + 3 < p1; p += 4) {
+                            float a0 = alpha * a[aRow + p];
+                            float a1 = alpha * a[aRow + p + 1];
+                            float a2 = alpha * a[aRow + p + 2];
+                            float a3 = alpha * a[aRow + p + 3];
+                            int b0 = bOff + p * ldb;
+                            int b1 = b0 + ldb;
+                            int b2 = b1 + ldb;
+                            int b3 = b2 + ldb;
+                            for (int j = j0; j < j1; j++) {
+                                c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+                            }
+                        }
+                        for (; p < p1; p++) {
+                            float aip = alpha * a[aRow + p];
+                            int bRow = bOff + p * ldb;
+                            for (int j = j0; j < j1; j++) {
+                                c[cRow + j] += aip * b[bRow + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-precision {@link #gemmNT}: C = alpha * A * B^T + beta * C.
+     */
+    public static void gemmNT(int m, int n, int k, float alpha,
+                              float[] a, int aOff, int lda,
+                              float[] b, int bOff, int ldb,
+                              float beta,
+                              float[] c, int cOff, int ldc) {
+        float[] bt = floatScratch(k * n);
+        for (int j = 0; j < n; j++) {
+            int bRow = bOff + j * ldb;
+            for (int p = 0; p < k; p++) {
+                bt[p * n + j] = b[bRow + p];
+            }
+        }
+        gemm(m, n, k, alpha, a, aOff, lda, bt, 0, n, beta, c, cOff, ldc);
+    }
+
+    /**
+     * C += alpha * A^T * B with single-precision A [k x m] and B [k x n] and a double C [m x n].
+     * Each block of K_BLOCK rows is summed in float (a vectorizable float kernel) and the
+     * block sums are accumulated in double, so long batches do not lose precision in the
+     * accumulated gradient.
+     */
+    public static void gemmTN(int m, int n, int k, float alpha,
+                              float[] a, int aOff, int lda,
+                              float[] b, int bOff, int ldb,
+                              double[] c, int cOff, int ldc) {
+        float[] partial = floatScratch(m * n);
+        for (int p0 = 0; p0 < k; p0 += K_BLOCK) {
+            int p1 = Math.min(k, p0 + K_BLOCK);
+            Arrays.fill(partial, 0, m * n, 0.0f);
+            int p = p0;
+            for (; p + 3 < p1; p += 4) {
+                int a0 = aOff + p * lda;
+                int a1 = a0 + lda;
+                int a2 = a1 + lda;
+                int a3 = a2 + lda;
+                int b0 = bOff + p * ldb;
+                int b1 = b0 + ldb;
+                int b2 = b1 + ldb;
+                int b3 = b2 + ldb;
+                for (int i = 0; i < m; i++) {
+                    float x0 = alpha * a[a0 + i];
+                    float x1 = alpha * a[a1 + i];
+                    float x2 = alpha * a[a2 + i];
+                    float x3 = alpha * a[a3 + i];
+                    int row = i * n;
+                    for (int j = 0; j < n; j++) {
+                        partial[row + j] += x0 * b[b0 + j] + x1 * b[b1 + j] + x2 * b[b2 + j] + x3 * b[b3 + j];
+                    }
+                }
+            }
+            for (; p < p1; p++) {
+                int aRow = aOff + p * lda;
+                int bRow = bOff + p * ldb;
+                for (int i = 0; i < m; i++) {
+                    float api = alpha * a[aRow + i];
+                    int row = i * n;
+                    for (int j = 0; j < n; j++) {
+                        partial[row + j] += api * b[bRow + j];
+                    }
+                }
+            }
+            for (int i = 0; i < m; i++) {
+                int cRow = cOff + i * ldc;
+                int row = i * n;
+                for (int j = 0; j < n; j++) {
+                    c[cRow + j] += partial[row + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds each row of the single-precision [m x n] matrix A to the double vector y.
+     */
+    public static void addRows(int m, int n, float alpha, float[] a, int aOff, int lda, double[] y, int yOff) {
+        for (int i = 0; i < m; i++) {
+            int aRow = aOff + i * lda;
+            for (int j = 0; j < n; j++) {
+                y[yOff + j] += alpha * a[aRow + j];
+            }
+        }
+    }
+
+    /**
+     * Rounds src[srcOff, srcOff + length) to float into dst.
+     */
+    public static void toFloat(double[] src, int srcOff, float[] dst, int dstOff, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOff + i] = (float) src[srcOff + i];
+        }
+    }
+
+    private static void scale(int m, int n, double beta, double[] c, int cOff, int ldc) {
+        if (beta == 1.0) {
+            return;
+        }
+        for (int i = 0; i < m; i++) {
+            int cRow = cOff + i * ldc;
+            for (int j = 0; j < n; j++) {
+                c[cRow + j] = beta == 0.0 ? 0.0 : beta * c[cRow + j];
+            }
+        }
+    }
+
+    private static void scale(int m, int n, float beta, float[] c, int cOff, int ldc) {
+        if (beta == 1.0f) {
+            return;
+        }
+        for (int i = 0; i < m; i++) {
+            int cRow = cOff + i * ldc;
+            for (int j = 0; j < n; j++) {
+                c[cRow + j] = beta == 0.0f ? 0.0f : beta * c[cRow + j];
+            }
+        }
+    }
+
+    // Returns a per-thread buffer of at least the given length.
+    private static double[] scratch(int length) {
+        double[][] holder = SCRATCH.get();
+        if (holder[0].length < length) {
+            holder[0] = new double[Math.max(length, holder[0].length * 2)];
+        }
+        return holder[0];
+    }
+
+    private static float[] floatScratch(int length) {
+        float[][] holder = FLOAT_SCRATCH.get();
+        if (holder[0].length < length) {
+            holder[0] = new float[Math.max(length, holder[0].length * 2)];
+        }
+        return holder[0];
+    }
+}
@@ -0,0 +1,146 @@
+package linalg;
+
+import java.util.Arrays;
+
+/**
+ * Preconditioned conjugate gradient solver for A * x = b with a symmetric positive
+ * definite {@link LinearOperator} A.
+ * <p>
+ * All work vectors are allocated once for a fixed dimension, so a solve allocates
+ * nothing. The solution vector is also the initial guess, which allows warm-starting
+ * from a previous solution. An optional Jacobi (diagonal) preconditioner can be set,
+ * and the squared residual norm of every iteration is recorded for diagnostics.
+ */
+public class ConjugateGradient {
+    private final int dimension;
+    private final int maxIterations;
+    private final double[] r;  // residual b - A x
+    private final double[] z;  // preconditioned residual
+    private final double[] p;  // search direction
+    private final double[] ap; // A * p
+    private final double[] residualHistory;
+    private int iterations;
+    private double[] diagonal; // Jacobi preconditioner, or null for none
+
+    public ConjugateGradient(int dimension, int maxIterations) {
+        if (dimension <= 0 || maxIterations <= 0) {
+            throw new IllegalArgumentException("Error: dimension and maximum iterations must be positive");
+        }
+        this.dimension = dimension;
+        this.maxIterations = maxIterations;
+        r = new double[dimension];
+        z = new double[dimension];
+        p = new double[dimension];
+        ap = new double[dimension];
+        residualHistory = new double[maxIterations + 1];
+    }
+
+    /**
+     * Sets the diagonal of A (or an approximation of it) used as Jacobi preconditioner.
+     * The array is read on every solve, so it can be refreshed in place; null disables
+     * preconditioning. All entries must be positive.
+     */
+    public void setPreconditioner(double[] diagonal) {
+        if (diagonal != null && diagonal.length != dimension) {
+            throw new IllegalArgumentException("Error: preconditioner has length " + diagonal.length
+                    + " but the solver has dimension " + dimension);
+        }
+        this.diagonal = diagonal;
+    }
+
+    /**
+     * Solves A * x = b, starting from the current contents of x (all zeros for a cold start).
+     * Stops after the maximum number of iterations or once the squared residual norm
+     * r^T r falls below tolerance.
+     *
+     * @param x initial guess on entry, solution on return.
+     * @return the number of iterations performed.
+     */
+    public int solve(LinearOperator a, double[] b, double[] x, double tolerance) {
+        // r = b - A x, skipping the product for a zero initial guess.
+        boolean zeroStart = true;
+        for (int i = 0; i < dimension; i++) {
+            if (x[i] != 0.0) {
+                zeroStart = false;
+                break;
+            }
+        }
+        if (zeroStart) {
+            System.arraycopy(b, 0, r, 0, dimension);
+        } else {
+            a.apply(x, ap);
+            for (int i = 0; i < dimension; i++) {
+                r[i] = b[i] - ap[i];
+            }
+        }
+        iterations = 0;
+        double rr = dot(r, r);
+        residualHistory[0] = rr;
+        if (rr < tolerance) {
+            return 0;
+        }
+        precondition(r, z);
+        System.arraycopy(z, 0, p, 0, dimension);
+        double rz = dot(r, z);
+
+        while (iterations < maxIterations) {
+            a.apply(p, ap);
+            double alpha = rz / (dot(p, ap) + 1e-8);
+            for (int i = 0; i < dimension; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * ap[i];
+            }
+            iterations++;
+            rr = dot(r, r);
+            residualHistory[iterations] = rr;
+            if (rr < tolerance) {
+                break;
+            }
+            precondition(r, z);
+            double rzNew = dot(r, z);
+            double beta = rzNew / rz;
+            for (int i = 0; i < dimension; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+            rz = rzNew;
+        }
+        return iterations;
+    }
+
+    /**
+     * @return the number of iterations of the last solve.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the squared residual norms of the last solve: the initial one followed by
+     *         one per iteration (length {@link #getIterations()} + 1).
+     */
+    public double[] getResidualHistory() {
+        return Arrays.copyOf(residualHistory, iterations + 1);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    private void precondition(double[] in, double[] out) {
+        if (diagonal == null) {
+            System.arraycopy(in, 0, out, 0, dimension);
+            return;
+        }
+        for (int i = 0; i < dimension; i++) {
+            out[i] = in[i] / diagonal[i];
+        }
+    }
+
+    private double dot(double[] a, double[] b) {
+        return Blas.dot(dimension, a, 0, b, 0);
+    }
+}
@@ -0,0 +1,14 @@
+package linalg;
+
+/**
+ * A symmetric linear map y = A * x that is applied rather than stored, such as a
+ * Fisher-vector product. Implementations write into out and must not allocate.
+ */
+@FunctionalInterface
+public interface LinearOperator {
+
+    /**
+     * Writes A * in into out. in and out are distinct arrays of the operator's dimension.
+     */
+    void apply(double[] in, double[] out);
+}
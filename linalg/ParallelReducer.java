@@ -0,0 +1,100 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Sums per-row contributions over a batch in parallel with a reproducible result.
+ * <p>
+ * The rows are split into chunks of a fixed size. Each chunk is accumulated into its
+ * own partial vector by a single task on a {@link ForkJoinPool}, and the partials are
+ * then merged by a pairwise tree reduction in a fixed order. Chunk boundaries and the
+ * merge order depend only on the number of rows, never on the number of threads or on
+ * scheduling, so the result is bit-identical for any pool size.
+ * <p>
+ * Partial buffers are kept between calls. One reducer must not run two reductions at once.
+ */
+public class ParallelReducer {
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+    private double[][] partials = new double[0][];
+    private final double[] scalar = new double[1];
+
+    /**
+     * Accumulates the contribution of rows [first, first + count) into partial, which is
+     * zeroed on entry. Runs on a single thread per call.
+     */
+    @FunctionalInterface
+    public interface ChunkTask {
+        void accumulate(int first, int count, double[] partial);
+    }
+
+    public ParallelReducer(int chunkSize) {
+        this(chunkSize, ForkJoinPool.commonPool());
+    }
+
+    public ParallelReducer(int chunkSize, ForkJoinPool pool) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Error: chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Writes the sum over all chunks of rows [0, rows) into out[0, dimension).
+     */
+    public void reduce(int rows, int dimension, ChunkTask task, double[] out) {
+        int chunks = Math.max(1, (rows + chunkSize - 1) / chunkSize);
+        ensurePartials(chunks, dimension);
+        if (chunks == 1) {
+            Arrays.fill(out, 0, dimension, 0.0);
+            task.accumulate(0, rows, out);
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+            double[] partial = partials[c];
+            Arrays.fill(partial, 0, dimension, 0.0);
+            int first = c * chunkSize;
+            task.accumulate(first, Math.min(chunkSize, rows - first), partial);
+        })).join();
+
+        // Tree reduction: at each level, chunk c absorbs chunk c + stride.
+        for (int stride = 1; stride < chunks; stride *= 2) {
+            int step = 2 * stride;
+            int level = stride;
+            pool.submit(() -> IntStream.range(0, (chunks + step - 1) / step).parallel().forEach(k -> {
+                int c = k * step;
+                if (c + level < chunks) {
+                    double[] target = partials[c];
+                    double[] source = partials[c + level];
+                    for (int i = 0; i < dimension; i++) {
+                        target[i] += source[i];
+                    }
+                }
+            })).join();
+        }
+        System.arraycopy(partials[0], 0, out, 0, dimension);
+    }
+
+    /**
+     * Scalar version of {@link #reduce}: the task accumulates into partial[0].
+     */
+    public double sum(int rows, ChunkTask task) {
+        reduce(rows, 1, task, scalar);
+        return scalar[0];
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    private void ensurePartials(int chunks, int dimension) {
+        if (partials.length < chunks || partials[0].length < dimension) {
+            int count = Math.max(chunks, partials.length);
+            int length = Math.max(dimension, partials.length == 0 ? 0 : partials[0].length);
+            partials = new double[count][length];
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package linalg;
+
+/**
+ * Storage precision of model parameters and rollout data.
+ * With {@link #FLOAT}, parameters and the bulk of a rollout (states and action
+ * probabilities) are stored as float[], and matrix products, activations and deltas
+ * are computed in float, which halves the memory traffic of the batched passes and
+ * doubles the number of lanes per SIMD register. Sums over a batch (weight and bias
+ * gradients), dot products and per-row returns and advantages are still accumulated
+ * in double.
+ */
+public enum Precision {
+    DOUBLE,
+    FLOAT
+}
@@ -1,5 +1,7 @@
 package main;
 
+import space.Discretizer;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
@@ -83,6 +85,14 @@ public class CartPoleEpsilonGreedy extends JPanel {
     // Each entry: QTable[state][action]
     private double[][] QTable = new double[NUM_STATES][NUM_ACTIONS];
 
+    // The ranges below must be somewhat large so we don't constantly clip
+    // (e.g., cartVel might exceed ±2 if we push for a while)
+    private static final Discretizer DISCRETIZER = new Discretizer(
+            new double[]{-2.4, -3.0, -THETA_THRESHOLD_RADIANS, -4.0},
+            new double[]{2.4, 3.0, THETA_THRESHOLD_RADIANS, 4.0},
+            new int[]{NUM_BINS_CART_POS, NUM_BINS_CART_VEL, NUM_BINS_POLE_ANGLE, NUM_BINS_POLE_ANG_VEL});
+    private final double[] stateBuffer = new double[4];
+
     // For the GUI
     private JFrame frame;
     private int renderEpisode = 0; // which episode we show in the GUI
@@ -111,27 +121,11 @@ public class CartPoleEpsilonGreedy extends JPanel {
 
     // Convert continuous state to discrete bin indices, then flatten to single index
     private int getStateIndex(double x, double xDot, double theta, double thetaDot) {
-        // The ranges below must be somewhat large so we don't constantly clip
-        // (e.g., cartVel might exceed ±2 if we push for a while)
-        int cposBin = discretize(x, -2.4, 2.4, NUM_BINS_CART_POS);
-        int cvelBin = discretize(xDot, -3.0, 3.0, NUM_BINS_CART_VEL);
-        int pangBin = discretize(theta, -THETA_THRESHOLD_RADIANS, THETA_THRESHOLD_RADIANS, NUM_BINS_POLE_ANGLE);
-        int pangvBin = discretize(thetaDot, -4.0, 4.0, NUM_BINS_POLE_ANG_VEL);
-
-        int idx = cposBin;
-        idx = idx * NUM_BINS_CART_VEL + cvelBin;
-        idx = idx * NUM_BINS_POLE_ANGLE + pangBin;
-        idx = idx * NUM_BINS_POLE_ANG_VEL + pangvBin;
-        return idx;
-    }
-
-    // Convert a continuous value into [0..nBins-1]
-    private int discretize(double value, double minValue, double maxValue, int nBins) {
-        // clip
-        if (value < minValue) value = minValue;
-        if (value > maxValue) value = maxValue;
-        double ratio = (value - minValue) / (maxValue - minValue);
-        return (int) Math.floor(ratio * (nBins - 1));
+        stateBuffer[0] = x;
+        stateBuffer[1] = xDot;
+        stateBuffer[2] = theta;
+        stateBuffer[3] = thetaDot;
+        return (int) DISCRETIZER.index(stateBuffer);
     }
 
     // Reset environment at start of each episode
@@ -0,0 +1,53 @@
+package policy;
+
+import java.util.SplittableRandom;
+
+/**
+ * Boltzmann (softmax) exploration over primitive int actions.
+ * Action a is chosen with probability proportional to exp(Q(a) / T), where the
+ * temperature T follows a {@link Schedule}. High temperatures explore almost uniformly;
+ * as T goes to 0 the policy becomes greedy.
+ */
+public class BoltzmannPolicy implements IntPolicy {
+    private final Schedule temperature;
+    private final SplittableRandom random;
+    private long steps;
+
+    public BoltzmannPolicy(Schedule temperature) {
+        this(temperature, new SplittableRandom());
+    }
+
+    public BoltzmannPolicy(Schedule temperature, SplittableRandom random) {
+        this.temperature = temperature;
+        this.random = random;
+    }
+
+    @Override
+    public int chooseAction(double[] qValues) {
+        double t = temperature.valueAt(steps++);
+        if (!(t > 0)) {
+            return IntPolicy.argmax(qValues);
+        }
+        // Subtract the max before exponentiating for numerical stability.
+        double max = qValues[IntPolicy.argmax(qValues)];
+        double sum = 0.0;
+        for (double q : qValues) {
+            sum += Math.exp((q - max) / t);
+        }
+        // Sample without storing the probabilities: walk the cumulative sum again.
+        double r = random.nextDouble() * sum;
+        double cumulative = 0.0;
+        for (int i = 0; i < qValues.length; i++) {
+            cumulative += Math.exp((qValues[i] - max) / t);
+            if (r < cumulative) {
+                return i;
+            }
+        }
+        return qValues.length - 1; // fallback
+    }
+
+    @Override
+    public BoltzmannPolicy split() {
+        return new BoltzmannPolicy(temperature, random.split());
+    }
+}
@@ -0,0 +1,47 @@
+package policy;
+
+import java.util.SplittableRandom;
+
+/**
+ * Epsilon-greedy action selection over primitive int actions.
+ * With probability ε, a random action is chosen; otherwise, the action with the
+ * highest Q-value is selected. ε follows a {@link Schedule} of the number of
+ * actions selected so far.
+ */
+public class EpsilonGreedyIntPolicy implements IntPolicy {
+    private final Schedule epsilon;
+    private final SplittableRandom random;
+    private long steps;
+
+    public EpsilonGreedyIntPolicy(Schedule epsilon) {
+        this(epsilon, new SplittableRandom());
+    }
+
+    public EpsilonGreedyIntPolicy(Schedule epsilon, SplittableRandom random) {
+        this.epsilon = epsilon;
+        this.random = random;
+    }
+
+    @Override
+    public int chooseAction(double[] qValues) {
+        double eps = epsilon.valueAt(steps++);
+        if (random.nextDouble() < eps) {
+            // Exploration: choose a random action.
+            return random.nextInt(qValues.length);
+        }
+        // Exploitation: choose the best action.
+        return IntPolicy.argmax(qValues);
+    }
+
+    @Override
+    public EpsilonGreedyIntPolicy split() {
+        return new EpsilonGreedyIntPolicy(epsilon, random.split());
+    }
+
+    /**
+     * @return the current value of ε.
+     */
+    public double getEpsilon() {
+        return epsilon.valueAt(steps);
+    }
+}
@@ -8,20 +8,26 @@ import java.util.Random;
  * otherwise, the action with the highest Q-value is selected.
  */
 public class EpsilonGreedyPolicy<S, A> extends Policy<S, A> {
-    private double epsilon;
+    private Schedule epsilon;
     private Random random;
-    private double increament;
+    private long steps;
 
+    /**
+     * Starts at ε = 0.1 and adds increament to ε after every call.
+     */
     public EpsilonGreedyPolicy(double increament) {
-        this.epsilon = 0.1;
+        this(step -> 0.1 + increament * step);
+    }
+
+    public EpsilonGreedyPolicy(Schedule epsilon) {
+        this.epsilon = epsilon;
         this.random = new Random();
-        this.increament = increament;
     }
 
     @Override
     public A chooseAction(S state, double[] qValues) {
         A bestAction;
-        if (random.nextDouble() < epsilon) {
+        if (random.nextDouble() < epsilon.valueAt(steps++)) {
             // Exploration: choose a random action.
             int numActions = qValues.length;
             // Here we assume that A is Integer.
@@ -37,7 +43,6 @@ public class EpsilonGreedyPolicy<S, A> extends Policy<S, A> {
             bestAction = (A) Integer.valueOf(bestActionInt);
         }
 
-        epsilon += increament;
         return bestAction;
     }
 }
@@ -0,0 +1,48 @@
+package policy;
+
+/**
+ * A decision policy over discrete actions numbered 0..n-1.
+ * Unlike {@link Policy}, actions are returned as primitive ints, so selecting an
+ * action involves no boxing or unchecked casts. Implementations own their random
+ * number generator and are not shared between threads; use {@link #split()} to give
+ * each thread its own independent instance.
+ */
+public interface IntPolicy {
+
+    /**
+     * Selects an action given the Q-values of the current state.
+     * @param qValues an array of Q-values corresponding to possible actions.
+     * @return the index of the selected action.
+     */
+    int chooseAction(double[] qValues);
+
+    /**
+     * Selects an action for a known discrete state. Policies that keep per-state
+     * statistics (such as visit counts) override this; the default ignores the state.
+     * @param state the index of the current state.
+     * @param qValues an array of Q-values corresponding to possible actions.
+     * @return the index of the selected action.
+     */
+    default int chooseAction(long state, double[] qValues) {
+        return chooseAction(qValues);
+    }
+
+    /**
+     * Returns a new policy with the same configuration and an independent random number generator.
+     * @throws IllegalStateException if the policy shares state that is not safe to use from several threads.
+     */
+    IntPolicy split();
+
+    /**
+     * Returns the index of the largest Q-value, preferring the lowest index on ties.
+     */
+    static int argmax(double[] qValues) {
+        int best = 0;
+        for (int i = 1; i < qValues.length; i++) {
+            if (qValues[i] > qValues[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
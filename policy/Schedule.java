@@ -0,0 +1,35 @@
+package policy;
+
+/**
+ * A hyperparameter (such as epsilon or a temperature) as a function of the step count.
+ */
+public interface Schedule {
+
+    /**
+     * @param step the number of actions selected so far.
+     * @return the value of the hyperparameter at that step.
+     */
+    double valueAt(long step);
+
+    /**
+     * A schedule that always returns the same value.
+     */
+    static Schedule constant(double value) {
+        return step -> value;
+    }
+
+    /**
+     * Interpolates linearly from start to end over the given number of steps, then stays at end.
+     */
+    static Schedule linear(double start, double end, long steps) {
+        return step -> step >= steps ? end : start + (end - start) * ((double) step / steps);
+    }
+
+    /**
+     * Multiplies start by decay every step, never going below min.
+     */
+    static Schedule exponential(double start, double min, double decay) {
+        double logDecay = Math.log(decay);
+        return step -> Math.max(min, start * Math.exp(logDecay * step));
+    }
+}
@@ -0,0 +1,98 @@
+package policy;
+
+import qtable.ConcurrentQTable;
+import qtable.HashQTable;
+import qtable.QTable;
+
+import java.util.SplittableRandom;
+
+/**
+ * Upper-confidence-bound (UCB1) action selection over primitive int actions.
+ * Picks the action maximizing Q(s, a) + c * sqrt(ln N(s) / N(s, a)), where N counts
+ * how often each action was taken in the state. Untried actions are taken first,
+ * in random order. Visit counts are kept per state in a {@link QTable}; without a
+ * state index, a single set of counts is shared (bandit-style UCB).
+ * <p>
+ * Split policies share the visit counts, so only a policy counting in a
+ * {@link ConcurrentQTable} can be split across threads.
+ */
+public class UCBPolicy implements IntPolicy {
+    private static final long NO_STATE = 0L;
+
+    private final double c;
+    private final int numActions;
+    private final QTable counts;
+    private final SplittableRandom random;
+
+    public UCBPolicy(double c, int numActions) {
+        this(c, new HashQTable(numActions), new SplittableRandom());
+    }
+
+    /**
+     * @param counts table used to store visit counts; its action count must match the Q-values.
+     */
+    public UCBPolicy(double c, QTable counts, SplittableRandom random) {
+        this.c = c;
+        this.numActions = counts.getNumActions();
+        this.counts = counts;
+        this.random = random;
+    }
+
+    @Override
+    public int chooseAction(double[] qValues) {
+        return chooseAction(NO_STATE, qValues);
+    }
+
+    @Override
+    public int chooseAction(long state, double[] qValues) {
+        double total = 0.0;
+        int untried = 0;
+        for (int a = 0; a < numActions; a++) {
+            double n = counts.get(state, a);
+            total += n;
+            if (n == 0) {
+                untried++;
+            }
+        }
+
+        int best;
+        if (untried > 0) {
+            // Take a random untried action.
+            int pick = random.nextInt(untried);
+            best = 0;
+            for (int a = 0; a < numActions; a++) {
+                if (counts.get(state, a) == 0 && pick-- == 0) {
+                    best = a;
+                    break;
+                }
+            }
+        } else {
+            double logTotal = Math.log(total);
+            double bestScore = Double.NEGATIVE_INFINITY;
+            best = 0;
+            for (int a = 0; a < numActions; a++) {
+                double score = qValues[a] + c * Math.sqrt(logTotal / counts.get(state, a));
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = a;
+                }
+            }
+        }
+        counts.add(state, best, 1.0);
+        return best;
+    }
+
+    /**
+     * The split policy shares the visit counts but has its own random number generator.
+     * @throws IllegalStateException if the counts are not in a {@link ConcurrentQTable},
+     *         which is the only table safe to update from several threads.
+     */
+    @Override
+    public UCBPolicy split() {
+        if (!(counts instanceof ConcurrentQTable)) {
+            throw new IllegalStateException("Error: a UCB policy can only be split if its visit counts "
+                    + "are in a ConcurrentQTable");
+        }
+        return new UCBPolicy(c, counts, random.split());
+    }
+}
@@ -0,0 +1,61 @@
+package qtable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe dense Q-table for lock-free (Hogwild-style) Q-learning.
+ * Each Q-value is stored as the raw bits of a double in an AtomicLongArray.
+ * Reads and writes never block; {@link #add} is an atomic compare-and-set loop,
+ * so concurrent updates to the same entry are never lost.
+ */
+public class ConcurrentQTable implements QTable {
+    private final int numActions;
+    private final long numStates;
+    private final AtomicLongArray values;
+
+    public ConcurrentQTable(long numStates, int numActions) {
+        if (numActions <= 0 || numStates <= 0) {
+            throw new IllegalArgumentException("Error: the number of states and actions must be positive");
+        }
+        if (numStates > (Integer.MAX_VALUE - 8) / numActions) {
+            throw new IllegalArgumentException("Error: " + numStates + " states do not fit in a concurrent table");
+        }
+        this.numActions = numActions;
+        this.numStates = numStates;
+        // Double.doubleToRawLongBits(0.0) == 0, so the zero-initialized array holds Q = 0 everywhere.
+        this.values = new AtomicLongArray((int) (numStates * numActions));
+    }
+
+    @Override
+    public int getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public double get(long state, int action) {
+        return Double.longBitsToDouble(values.getOpaque((int) state * numActions + action));
+    }
+
+    @Override
+    public void set(long state, int action, double value) {
+        values.setOpaque((int) state * numActions + action, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public void add(long state, int action, double delta) {
+        int i = (int) state * numActions + action;
+        long current = values.get(i);
+        while (true) {
+            long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+            long witness = values.compareAndExchange(i, current, updated);
+            if (witness == current) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    public long getNumStates() {
+        return numStates;
+    }
+}
@@ -0,0 +1,75 @@
+package qtable;
+
+import java.util.Arrays;
+
+/**
+ * A Q-table stored as a single flat double[] of numStates * numActions entries.
+ * The Q-values of state s occupy [s * numActions, (s + 1) * numActions).
+ * Best for small grids, where every state is likely to be visited.
+ */
+public class DenseQTable implements QTable {
+    private final int numActions;
+    private final long numStates;
+    private final double[] values;
+
+    public DenseQTable(long numStates, int numActions) {
+        if (numActions <= 0 || numStates <= 0) {
+            throw new IllegalArgumentException("Error: the number of states and actions must be positive");
+        }
+        long length = numStates * numActions;
+        if (numStates > Integer.MAX_VALUE / numActions || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Error: " + numStates + " states do not fit in a dense table; use a paged table");
+        }
+        this.numActions = numActions;
+        this.numStates = numStates;
+        this.values = new double[(int) length];
+    }
+
+    @Override
+    public int getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public double get(long state, int action) {
+        return values[(int) state * numActions + action];
+    }
+
+    @Override
+    public void set(long state, int action, double value) {
+        values[(int) state * numActions + action] = value;
+    }
+
+    @Override
+    public void add(long state, int action, double delta) {
+        values[(int) state * numActions + action] += delta;
+    }
+
+    @Override
+    public void getValues(long state, double[] out) {
+        System.arraycopy(values, (int) state * numActions, out, 0, numActions);
+    }
+
+    @Override
+    public double maxValue(long state) {
+        int base = (int) state * numActions;
+        double max = values[base];
+        for (int a = 1; a < numActions; a++) {
+            if (values[base + a] > max) {
+                max = values[base + a];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Resets every Q-value to 0.
+     */
+    public void clear() {
+        Arrays.fill(values, 0.0);
+    }
+
+    public long getNumStates() {
+        return numStates;
+    }
+}
@@ -0,0 +1,158 @@
+package qtable;
+
+import java.util.Arrays;
+
+/**
+ * A Q-table backed by a primitive long-keyed open-addressing hash map.
+ * Keys live in a long[] and the Q-values of the state in slot i are stored inline
+ * in one flat double[] at [i * numActions, (i + 1) * numActions).
+ * Lookups use linear probing and never insert; entries are only created on writes.
+ */
+public class HashQTable implements QTable {
+    private static final long EMPTY = -1L;
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private final int numActions;
+    private long[] keys;
+    private double[] values;
+    private int mask;
+    private int size;
+
+    public HashQTable(int numActions) {
+        this(numActions, 1024);
+    }
+
+    public HashQTable(int numActions, int initialCapacity) {
+        if (numActions <= 0) {
+            throw new IllegalArgumentException("Error: the number of actions must be positive");
+        }
+        this.numActions = numActions;
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity * numActions];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    // Finalizer step of MurmurHash3; spreads the mixed-radix indices over all bits.
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    // Returns the slot holding the key, or -1 if it is absent.
+    private int find(long state) {
+        int slot = mix(state) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == state) {
+                return slot;
+            }
+            if (k == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Returns the slot holding the key, inserting a zero-initialized entry if needed.
+    private int findOrInsert(long state) {
+        if (state < 0) {
+            throw new IllegalArgumentException("Error: state index must be non-negative");
+        }
+        int slot = mix(state) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == state) {
+                return slot;
+            }
+            if (k == EMPTY) {
+                if (size + 1 > (mask + 1) * MAX_LOAD_FACTOR) {
+                    grow();
+                    return findOrInsert(state);
+                }
+                keys[slot] = state;
+                size++;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findOrInsert(oldKeys[i]);
+                System.arraycopy(oldValues, i * numActions, values, slot * numActions, numActions);
+            }
+        }
+    }
+
+    @Override
+    public int getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public double get(long state, int action) {
+        int slot = find(state);
+        return slot < 0 ? 0.0 : values[slot * numActions + action];
+    }
+
+    @Override
+    public void set(long state, int action, double value) {
+        int slot = findOrInsert(state);
+        values[slot * numActions + action] = value;
+    }
+
+    @Override
+    public void add(long state, int action, double delta) {
+        int slot = findOrInsert(state);
+        values[slot * numActions + action] += delta;
+    }
+
+    @Override
+    public void getValues(long state, double[] out) {
+        int slot = find(state);
+        if (slot < 0) {
+            Arrays.fill(out, 0, numActions, 0.0);
+        } else {
+            System.arraycopy(values, slot * numActions, out, 0, numActions);
+        }
+    }
+
+    @Override
+    public double maxValue(long state) {
+        int slot = find(state);
+        if (slot < 0) {
+            return 0.0;
+        }
+        int base = slot * numActions;
+        double max = values[base];
+        for (int a = 1; a < numActions; a++) {
+            if (values[base + a] > max) {
+                max = values[base + a];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of states that have been written.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,238 @@
+package qtable;
+
+import space.Discretizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A dense Q-table that lives off-heap in a memory-mapped file.
+ * The file starts with a small header describing the discretization (bins and bounds
+ * per feature), the number of actions and a format version, followed by the Q-values
+ * as little-endian doubles in state-major order.
+ * Reopening a trained table only maps the file, so it is available immediately,
+ * it can be shared read-only by several processes, and it is never scanned by the GC.
+ */
+public class MappedQTable implements QTable, Closeable {
+    private static final int MAGIC = 0x5154424C; // "QTBL"
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER_BYTES = 24;
+    private static final int FEATURE_HEADER_BYTES = 4 + 8 + 8; // bins, min, max
+    private static final int DATA_ALIGNMENT = 4096;
+
+    // A single mapping is limited to 2 GB, so the data is mapped in chunks of 2^27 doubles (1 GB).
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final Discretizer discretizer;
+    private final int numActions;
+    private final boolean readOnly;
+    private final MappedByteBuffer[] mappings;
+    private final DoubleBuffer[] chunks;
+
+    private MappedQTable(FileChannel channel, Discretizer discretizer, int numActions,
+                         long dataOffset, boolean readOnly) throws IOException {
+        this.channel = channel;
+        this.discretizer = discretizer;
+        this.numActions = numActions;
+        this.readOnly = readOnly;
+
+        long totalValues = Math.multiplyExact(discretizer.getNumStates(), (long) numActions);
+        int numChunks = (int) ((totalValues - 1) >>> CHUNK_SHIFT) + 1;
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        mappings = new MappedByteBuffer[numChunks];
+        chunks = new DoubleBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            long first = (long) c << CHUNK_SHIFT;
+            long count = Math.min(1L << CHUNK_SHIFT, totalValues - first);
+            mappings[c] = channel.map(mode, dataOffset + first * Double.BYTES, count * Double.BYTES);
+            mappings[c].order(ByteOrder.LITTLE_ENDIAN);
+            chunks[c] = mappings[c].asDoubleBuffer();
+        }
+    }
+
+    /**
+     * Creates (or overwrites) a table file with all Q-values set to 0.
+     */
+    public static MappedQTable create(Path file, Discretizer discretizer, int numActions) throws IOException {
+        if (numActions <= 0) {
+            throw new IllegalArgumentException("Error: the number of actions must be positive");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int features = discretizer.getFeatures();
+            int[] bins = discretizer.getBins();
+            double[] min = discretizer.getMinBounds();
+            double[] max = discretizer.getMaxBounds();
+
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + features * FEATURE_HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(numActions).putInt(features)
+                    .putLong(discretizer.getNumStates());
+            for (int i = 0; i < features; i++) {
+                header.putInt(bins[i]).putDouble(min[i]).putDouble(max[i]);
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            long dataOffset = dataOffset(features);
+            long dataBytes = Math.multiplyExact(Math.multiplyExact(discretizer.getNumStates(), (long) numActions),
+                    (long) Double.BYTES);
+            // Extend the file by writing its last byte; the data region stays sparse (all zeros).
+            channel.write(ByteBuffer.allocate(1), dataOffset + dataBytes - 1);
+            return new MappedQTable(channel, discretizer, numActions, dataOffset, false);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing table file.
+     * @param readOnly if true, the file is mapped read-only and writes throw UnsupportedOperationException.
+     */
+    public static MappedQTable open(Path file, boolean readOnly) throws IOException {
+        FileChannel channel = readOnly
+                ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer fixed = readFully(channel, 0, FIXED_HEADER_BYTES);
+            if (fixed.getInt() != MAGIC) {
+                throw new IOException("Error: " + file + " is not a Q-table file");
+            }
+            int version = fixed.getInt();
+            if (version != VERSION) {
+                throw new IOException("Error: unsupported Q-table file version " + version);
+            }
+            int numActions = fixed.getInt();
+            int features = fixed.getInt();
+            long numStates = fixed.getLong();
+            // features is bounded by the file size, so the per-feature header below cannot be huge.
+            if (numActions <= 0 || features < 0
+                    || features > (channel.size() - FIXED_HEADER_BYTES) / FEATURE_HEADER_BYTES) {
+                throw new IOException("Error: corrupt Q-table header in " + file);
+            }
+
+            ByteBuffer perFeature = readFully(channel, FIXED_HEADER_BYTES, features * FEATURE_HEADER_BYTES);
+            int[] bins = new int[features];
+            double[] min = new double[features];
+            double[] max = new double[features];
+            for (int i = 0; i < features; i++) {
+                bins[i] = perFeature.getInt();
+                min[i] = perFeature.getDouble();
+                max[i] = perFeature.getDouble();
+            }
+            Discretizer discretizer = new Discretizer(min, max, bins);
+            if (discretizer.getNumStates() != numStates) {
+                throw new IOException("Error: corrupt Q-table header in " + file);
+            }
+            long expectedSize;
+            try {
+                expectedSize = Math.addExact(dataOffset(features), Math.multiplyExact(
+                        Math.multiplyExact(numStates, (long) numActions), (long) Double.BYTES));
+            } catch (ArithmeticException e) {
+                throw new IOException("Error: corrupt Q-table header in " + file, e);
+            }
+            if (channel.size() < expectedSize) {
+                throw new IOException("Error: Q-table file " + file + " is truncated");
+            }
+            return new MappedQTable(channel, discretizer, numActions, dataOffset(features), readOnly);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Error: unexpected end of Q-table file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // The data region starts at the first page boundary after the header.
+    private static long dataOffset(int features) {
+        long headerBytes = FIXED_HEADER_BYTES + (long) features * FEATURE_HEADER_BYTES;
+        return (headerBytes + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Q-table was opened read-only");
+        }
+    }
+
+    @Override
+    public int getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public double get(long state, int action) {
+        long i = state * numActions + action;
+        return chunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+    }
+
+    @Override
+    public void set(long state, int action, double value) {
+        checkWritable();
+        long i = state * numActions + action;
+        chunks[(int) (i >>> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), value);
+    }
+
+    @Override
+    public void add(long state, int action, double delta) {
+        checkWritable();
+        long i = state * numActions + action;
+        DoubleBuffer chunk = chunks[(int) (i >>> CHUNK_SHIFT)];
+        int offset = (int) (i & CHUNK_MASK);
+        chunk.put(offset, chunk.get(offset) + delta);
+    }
+
+    /**
+     * @return the discretizer stored in the file header.
+     */
+    public Discretizer getDiscretizer() {
+        return discretizer;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Writes any modified Q-values back to the file.
+     */
+    public void force() {
+        if (!readOnly) {
+            for (MappedByteBuffer mapping : mappings) {
+                mapping.force();
+            }
+        }
+    }
+
+    /**
+     * Flushes pending writes and closes the file. The mapping itself is released
+     * once the table is no longer reachable.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
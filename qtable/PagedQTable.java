@@ -0,0 +1,116 @@
+package qtable;
+
+import java.util.Arrays;
+
+/**
+ * A Q-table split into fixed-size pages that are allocated on first write.
+ * The state index is split into a page number (high bits) and an offset (low bits),
+ * so a lookup is two array loads with no hashing. Pages that were never written
+ * cost one null reference and read as 0.
+ * Best for large grids where only a fraction of the states is ever visited.
+ */
+public class PagedQTable implements QTable {
+    private static final int DEFAULT_PAGE_SHIFT = 10; // 1024 states per page
+
+    private final int numActions;
+    private final long numStates;
+    private final int pageShift;
+    private final int pageMask;
+    private final double[][] pages;
+    private int allocatedPages;
+
+    public PagedQTable(long numStates, int numActions) {
+        this(numStates, numActions, DEFAULT_PAGE_SHIFT);
+    }
+
+    /**
+     * @param pageShift log2 of the number of states per page.
+     */
+    public PagedQTable(long numStates, int numActions, int pageShift) {
+        if (numActions <= 0 || numStates <= 0) {
+            throw new IllegalArgumentException("Error: the number of states and actions must be positive");
+        }
+        if (pageShift < 0 || (1L << pageShift) * numActions > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Error: invalid page size 2^" + pageShift);
+        }
+        long numPages = ((numStates - 1) >>> pageShift) + 1;
+        if (numPages > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Error: " + numStates + " states need too many pages; increase the page size");
+        }
+        this.numActions = numActions;
+        this.numStates = numStates;
+        this.pageShift = pageShift;
+        this.pageMask = (1 << pageShift) - 1;
+        this.pages = new double[(int) numPages][];
+    }
+
+    // Returns the page holding the state, allocating it if needed.
+    private double[] pageForWrite(long state) {
+        int p = (int) (state >>> pageShift);
+        double[] page = pages[p];
+        if (page == null) {
+            page = new double[(pageMask + 1) * numActions];
+            pages[p] = page;
+            allocatedPages++;
+        }
+        return page;
+    }
+
+    @Override
+    public int getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public double get(long state, int action) {
+        double[] page = pages[(int) (state >>> pageShift)];
+        return page == null ? 0.0 : page[((int) state & pageMask) * numActions + action];
+    }
+
+    @Override
+    public void set(long state, int action, double value) {
+        pageForWrite(state)[((int) state & pageMask) * numActions + action] = value;
+    }
+
+    @Override
+    public void add(long state, int action, double delta) {
+        pageForWrite(state)[((int) state & pageMask) * numActions + action] += delta;
+    }
+
+    @Override
+    public void getValues(long state, double[] out) {
+        double[] page = pages[(int) (state >>> pageShift)];
+        if (page == null) {
+            Arrays.fill(out, 0, numActions, 0.0);
+        } else {
+            System.arraycopy(page, ((int) state & pageMask) * numActions, out, 0, numActions);
+        }
+    }
+
+    @Override
+    public double maxValue(long state) {
+        double[] page = pages[(int) (state >>> pageShift)];
+        if (page == null) {
+            return 0.0;
+        }
+        int base = ((int) state & pageMask) * numActions;
+        double max = page[base];
+        for (int a = 1; a < numActions; a++) {
+            if (page[base + a] > max) {
+                max = page[base + a];
+            }
+        }
+        return max;
+    }
+
+    public long getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @return the number of pages that have been allocated so far.
+     */
+    public int getAllocatedPages() {
+        return allocatedPages;
+    }
+}
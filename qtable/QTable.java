@@ -0,0 +1,57 @@
+package qtable;
+
+/**
+ * Storage for tabular action values Q(s, a).
+ * States are identified by a non-negative long index (typically a mixed-radix
+ * encoding of the discretized features) and actions by an int in [0, numActions).
+ * States that were never written have all Q-values equal to 0.
+ */
+public interface QTable {
+
+    /**
+     * @return the number of actions stored per state.
+     */
+    int getNumActions();
+
+    /**
+     * Returns Q(state, action), or 0 if the state has never been written.
+     */
+    double get(long state, int action);
+
+    /**
+     * Sets Q(state, action) to the given value.
+     */
+    void set(long state, int action, double value);
+
+    /**
+     * Adds delta to Q(state, action).
+     */
+    default void add(long state, int action, double delta) {
+        set(state, action, get(state, action) + delta);
+    }
+
+    /**
+     * Copies the Q-values of a state into the supplied array without creating an entry.
+     * @param state the state index.
+     * @param out an array of length at least getNumActions().
+     */
+    default void getValues(long state, double[] out) {
+        for (int a = 0; a < getNumActions(); a++) {
+            out[a] = get(state, a);
+        }
+    }
+
+    /**
+     * Returns the maximum Q-value over all actions of a state.
+     */
+    default double maxValue(long state) {
+        double max = get(state, 0);
+        for (int a = 1; a < getNumActions(); a++) {
+            double q = get(state, a);
+            if (q > max) {
+                max = q;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,40 @@
+package qtable;
+
+/**
+ * The storage backends available for tabular agents.
+ */
+public enum QTableBackend {
+    /** Open-addressing hash map; memory grows with the number of visited states. */
+    HASH,
+    /** One flat array covering every state; fastest for small grids. */
+    DENSE,
+    /** Lazily allocated pages; untouched regions of large grids cost nothing. */
+    PAGED,
+    /** One byte per Q-value with a per-block offset and scale; about 7x smaller than DENSE. */
+    QUANTIZED,
+    /** DENSE if the full table is small, PAGED otherwise. */
+    AUTO;
+
+    // Largest table (in Q-values) that AUTO stores densely: 4M doubles = 32 MB.
+    private static final long AUTO_DENSE_LIMIT = 1L << 22;
+
+    /**
+     * Creates an empty Q-table of this backend type.
+     */
+    public QTable create(long numStates, int numActions) {
+        switch (this) {
+            case HASH:
+                return new HashQTable(numActions);
+            case DENSE:
+                return new DenseQTable(numStates, numActions);
+            case PAGED:
+                return new PagedQTable(numStates, numActions);
+            case QUANTIZED:
+                return new QuantizedQTable(numStates, numActions);
+            default:
+                return numStates <= AUTO_DENSE_LIMIT / numActions
+                        ? new DenseQTable(numStates, numActions)
+                        : new PagedQTable(numStates, numActions);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package qtable;
+
+/**
+ * A dense Q-table that stores each Q-value in one byte.
+ * Q-values are grouped into fixed-size blocks; every block has its own float offset and
+ * scale, and a value is decoded as offset + code * scale with an unsigned 8-bit code.
+ * Storage is about 1.2 bytes per Q-value instead of 8, so much finer discretizations fit
+ * in the same memory and more of the table stays in cache.
+ * <p>
+ * Writes use stochastic rounding: a value between two codes is rounded up with probability
+ * equal to its distance from the lower code. Small TD updates are therefore preserved in
+ * expectation instead of always rounding back to the old value.
+ * When a write falls outside a block's range, the block is widened and re-encoded; every
+ * blockSize writes to a block, it is narrowed and re-encoded again if its values have come
+ * to span less than half of its range, so a transient outlier does not cost the block its
+ * resolution for good.
+ * This class is not thread-safe.
+ */
+public class QuantizedQTable implements QTable {
+    private static final int DEFAULT_BLOCK_SIZE = 64;
+    private static final int LEVELS = 255; // codes 0..255
+
+    private final int numActions;
+    private final long numStates;
+    private final int blockShift;
+    private final byte[] codes;
+    private final float[] offsets;
+    private final float[] scales;
+    private final double[] scratch;
+    private final short[] writesSinceFit; // writes to each block since it was last checked for narrowing
+    private final int refitInterval;
+    private long seed;
+
+    public QuantizedQTable(long numStates, int numActions) {
+        this(numStates, numActions, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize number of Q-values sharing one offset and scale; must be a power of two.
+     */
+    public QuantizedQTable(long numStates, int numActions, int blockSize) {
+        if (numActions <= 0 || numStates <= 0) {
+            throw new IllegalArgumentException("Error: the number of states and actions must be positive");
+        }
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Error: block size must be a power of two");
+        }
+        if (numStates > (Integer.MAX_VALUE - 8) / numActions) {
+            throw new IllegalArgumentException("Error: " + numStates + " states do not fit in a quantized table");
+        }
+        this.numActions = numActions;
+        this.numStates = numStates;
+        this.blockShift = Integer.numberOfTrailingZeros(blockSize);
+        int length = (int) (numStates * numActions);
+        int numBlocks = ((length - 1) >>> blockShift) + 1;
+        this.codes = new byte[length];
+        // A zero offset and zero scale decode every value in the block as 0.
+        this.offsets = new float[numBlocks];
+        this.scales = new float[numBlocks];
+        this.scratch = new double[blockSize];
+        this.writesSinceFit = new short[numBlocks];
+        this.refitInterval = Math.min(blockSize, Short.MAX_VALUE);
+        this.seed = System.nanoTime() | 1; // xorshift state must be non-zero
+    }
+
+    private double decode(int i) {
+        int b = i >>> blockShift;
+        return offsets[b] + (codes[i] & 0xFF) * (double) scales[b];
+    }
+
+    // Uniform double in [0, 1) from a xorshift64* generator.
+    private double nextUniform() {
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        return ((seed * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+
+    private void encode(int i, double value, boolean stochastic) {
+        int b = i >>> blockShift;
+        float scale = scales[b];
+        double x = scale == 0f ? 0.0 : (value - offsets[b]) / scale;
+        int code = (int) Math.floor(x);
+        double frac = x - code;
+        if (stochastic ? nextUniform() < frac : frac >= 0.5) {
+            code++;
+        }
+        codes[i] = (byte) Math.max(0, Math.min(LEVELS, code));
+    }
+
+    // Widens block b so that value is representable, then re-encodes the existing values.
+    private void widen(int b, double value) {
+        int start = b << blockShift;
+        int end = Math.min(codes.length, start + scratch.length);
+        double lo = offsets[b];
+        double hi = offsets[b] + LEVELS * (double) scales[b];
+        for (int i = start; i < end; i++) {
+            scratch[i - start] = decode(i);
+        }
+        // Leave some headroom in the direction of growth to avoid re-encoding on every step.
+        double pad = (Math.max(hi, value) - Math.min(lo, value)) / 16;
+        if (value < lo) {
+            lo = value - pad;
+        }
+        if (value > hi) {
+            hi = value + pad;
+        }
+        refit(b, lo, hi, end - start);
+    }
+
+    // Shrinks block b to the range its values span now (with the same headroom as widen) if
+    // that is less than half of its current range, e.g. once an outlier has been overwritten.
+    private void narrow(int b) {
+        int start = b << blockShift;
+        int end = Math.min(codes.length, start + scratch.length);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            double v = decode(i);
+            scratch[i - start] = v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        double pad = (max - min) / 16;
+        if ((max - min) + 2 * pad < 0.5 * LEVELS * (double) scales[b]) {
+            refit(b, min - pad, max + pad, end - start);
+        }
+    }
+
+    // Sets the offset and scale of block b to cover [lo, hi] and re-encodes the first count
+    // values of scratch into it. The float offset is rounded down and the float scale up, so
+    // the representable range never ends up narrower than [lo, hi].
+    private void refit(int b, double lo, double hi, int count) {
+        float offset = (float) lo;
+        if (offset > lo) {
+            offset = Math.nextDown(offset);
+        }
+        float scale = (float) ((hi - offset) / LEVELS);
+        if (offset + LEVELS * (double) scale < hi) {
+            scale = Math.nextUp(scale);
+        }
+        offsets[b] = offset;
+        scales[b] = scale;
+        int start = b << blockShift;
+        for (int i = 0; i < count; i++) {
+            encode(start + i, scratch[i], false);
+        }
+    }
+
+    @Override
+    public int getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public double get(long state, int action) {
+        return decode((int) state * numActions + action);
+    }
+
+    @Override
+    public void set(long state, int action, double value) {
+        int i = (int) state * numActions + action;
+        int b = i >>> blockShift;
+        double lo = offsets[b];
+        double hi = lo + LEVELS * (double) scales[b];
+        if (value < lo || value > hi) {
+            widen(b, value);
+        }
+        encode(i, value, true);
+        // Checking the block's spread costs one pass over it, so do it once per refitInterval writes.
+        if (++writesSinceFit[b] >= refitInterval) {
+            writesSinceFit[b] = 0;
+            narrow(b);
+        }
+    }
+
+    public long getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @return the approximate storage size of the table in bytes.
+     */
+    public long getStorageBytes() {
+        return codes.length + (long) offsets.length * (Float.BYTES * 2 + Short.BYTES);
+    }
+}
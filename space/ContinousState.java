@@ -2,50 +2,43 @@ package space;
 
 public class ContinousState extends State {
     private double[] current;
-    private double[] minBounds;
-    private double[] maxBounds;
     private int features;
-    private int bins;
+    private Discretizer discretizer;
 
     public ContinousState(int features, double[] initialState, double[] minBounds, double[] maxBounds, int bins) {
-        if (features != initialState.length) {
+        this(features, initialState, new Discretizer(minBounds, maxBounds, bins));
+    }
+
+    public ContinousState(int features, double[] initialState, Discretizer discretizer) {
+        if (features != initialState.length || features != discretizer.getFeatures()) {
             throw new IllegalArgumentException("Error: the number of features doesn't match the length of features ");
         }
 
         this.features = features;
         this.current = initialState;
-        this.bins = bins;
-
-        this.minBounds = minBounds;
-        this.maxBounds = maxBounds;
+        this.discretizer = discretizer;
     }
 
-    private int discretize(double[] state) {
-        int discreteValue = 0;
-        for (int i = 0; i < features; i++) {
-            int digit = discretizeValue(current[i], minBounds[i], maxBounds[i]);
-            discreteValue = discreteValue * bins + digit;
-        }
-
-        return discreteValue;
+    /**
+     * Returns the interned key of the discretized state, for use by tabular agents.
+     */
+    public StateKey toKey() {
+        return StateKey.of(discretizer.index(current));
     }
 
     public ContinousState(int features, double[] initialState, double[] minBounds, double[] maxBounds) {
         this(features, initialState, minBounds, maxBounds, 15);
     }
 
-    private int discretizeValue(double value, double min, double max) {
-        value = Math.max(Math.min(value, max), min);
-
-        double binSize = (max - min) / bins;
-        int bin = (int) ((value - min) / binSize);
-        bin = Math.min(bin, bins);
-        return bin;
+    @Override
+    public State copy() {
+        // The discretizer is immutable and shared; only the feature values are copied.
+        return new ContinousState(features, current.clone(), discretizer);
     }
 
     @Override
-    public State copy() {
-        return null;
+    public double[] toArray() {
+        return current.clone();
     }
 
     @Override
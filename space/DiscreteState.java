@@ -6,6 +6,18 @@ public abstract class DiscreteState extends State {
     public DiscreteState(int features, double[][] bounds) { this(features, bounds, 15);}
 
     public DiscreteState(int features, double[][] bounds, int bins) {
-        this.bins = 15;
+        this.bins = bins;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the mixed-radix index of this state over its discrete features.
+     */
+    public abstract long index();
+
+    /**
+     * Returns the interned key of this state, for use by tabular agents.
+     */
+    public StateKey toKey() {
+        return StateKey.of(index(), isTerminal());
+    }
+}
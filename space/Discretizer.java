@@ -0,0 +1,204 @@
+package space;
+
+import java.util.Arrays;
+
+/**
+ * Maps continuous feature vectors to a flat state index.
+ * Each feature i is clamped to [minBounds[i], maxBounds[i]] and split into bins[i]
+ * equal-width bins; the per-feature bins are then combined as digits of a mixed-radix
+ * number, with the first feature as the most significant digit.
+ * The reciprocal bin widths are computed once, so binning a value is a clamp,
+ * a subtract, a multiply and a truncation with no division.
+ */
+public class Discretizer {
+    private final int features;
+    private final double[] minBounds;
+    private final double[] maxBounds;
+    private final int[] bins;
+    private final double[] binsPerUnit; // bins[i] / (maxBounds[i] - minBounds[i])
+    private final long numStates;
+
+    public Discretizer(double[] minBounds, double[] maxBounds, int[] bins) {
+        if (minBounds.length != maxBounds.length || minBounds.length != bins.length) {
+            throw new IllegalArgumentException("Error: bounds and bin counts must have one entry per feature");
+        }
+        this.features = bins.length;
+        this.minBounds = minBounds.clone();
+        this.maxBounds = maxBounds.clone();
+        this.bins = bins.clone();
+        this.binsPerUnit = new double[features];
+
+        long total = 1;
+        for (int i = 0; i < features; i++) {
+            if (bins[i] <= 0) {
+                throw new IllegalArgumentException("Error: bin counts must be positive");
+            }
+            if (!(maxBounds[i] > minBounds[i])) {
+                throw new IllegalArgumentException("Error: max bound must be greater than min bound for feature " + i);
+            }
+            binsPerUnit[i] = bins[i] / (maxBounds[i] - minBounds[i]);
+            total = Math.multiplyExact(total, bins[i]);
+        }
+        this.numStates = total;
+    }
+
+    /**
+     * Creates a discretizer that uses the same number of bins for every feature.
+     */
+    public Discretizer(double[] minBounds, double[] maxBounds, int bins) {
+        this(minBounds, maxBounds, filled(minBounds.length, bins));
+    }
+
+    private static int[] filled(int length, int value) {
+        int[] a = new int[length];
+        Arrays.fill(a, value);
+        return a;
+    }
+
+    /**
+     * Returns the bin of a single feature value, in [0, bins[feature] - 1].
+     */
+    public int bin(int feature, double value) {
+        double min = minBounds[feature];
+        value = Math.max(Math.min(value, maxBounds[feature]), min);
+        int bin = (int) ((value - min) * binsPerUnit[feature]);
+        return Math.min(bin, bins[feature] - 1);
+    }
+
+    /**
+     * Returns the mixed-radix state index of a feature vector, in [0, getNumStates()).
+     */
+    public long index(double[] state) {
+        long index = 0;
+        for (int i = 0; i < features; i++) {
+            index = index * bins[i] + bin(i, state[i]);
+        }
+        return index;
+    }
+
+    /**
+     * Computes the state indices of a batch of feature vectors in one pass.
+     * The loops run feature by feature over the whole batch, so each inner loop is a
+     * branch-free clamp/scale/accumulate. With row-major input the loop reads every
+     * features-th element, a strided gather that the JIT keeps scalar; see
+     * {@link #indexBatchColumns(double[], int, long[])} for unit-stride loops.
+     *
+     * @param states row-major [count x features] array of feature values.
+     * @param count number of feature vectors in the batch.
+     * @param out array receiving one state index per feature vector.
+     */
+    public void indexBatch(double[] states, int count, long[] out) {
+        Arrays.fill(out, 0, count, 0L);
+        for (int i = 0; i < features; i++) {
+            double min = minBounds[i];
+            double max = maxBounds[i];
+            double scale = binsPerUnit[i];
+            int radix = bins[i];
+            int last = radix - 1;
+            for (int n = 0, k = i; n < count; n++, k += features) {
+                double v = Math.max(Math.min(states[k], max), min);
+                int bin = Math.min((int) ((v - min) * scale), last);
+                out[n] = out[n] * radix + bin;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #indexBatch(double[], int, long[])} for grids with fewer than 2^31 states,
+     * writing int indices, which halves the output traffic.
+     */
+    public void indexBatch(double[] states, int count, int[] out) {
+        if (numStates > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Error: " + numStates + " states do not fit in int indices");
+        }
+        Arrays.fill(out, 0, count, 0);
+        for (int i = 0; i < features; i++) {
+            double min = minBounds[i];
+            double max = maxBounds[i];
+            double scale = binsPerUnit[i];
+            int radix = bins[i];
+            int last = radix - 1;
+            for (int n = 0, k = i; n < count; n++, k += features) {
+                double v = Math.max(Math.min(states[k], max), min);
+                int bin = Math.min((int) ((v - min) * scale), last);
+                out[n] = out[n] * radix + bin;
+            }
+        }
+    }
+
+    /**
+     * Computes the state indices of a batch stored column-major (struct-of-arrays):
+     * feature i of vector n is columns[i * count + n], as written by
+     * {@link environment.VectorCartPole#getObservationColumns}. Each inner loop then reads
+     * and writes consecutive elements, which is the shape C2's loop vectorizer needs. The
+     * JDK 17 C2 still compiles it to scalar code, since it does not vectorize the
+     * double-to-int conversion of the bin, so the gain there is only the unit-stride loads.
+     *
+     * @param columns column-major [features x count] array of feature values.
+     * @param count number of feature vectors in the batch.
+     * @param out array receiving one state index per feature vector.
+     */
+    public void indexBatchColumns(double[] columns, int count, long[] out) {
+        Arrays.fill(out, 0, count, 0L);
+        for (int i = 0; i < features; i++) {
+            double min = minBounds[i];
+            double max = maxBounds[i];
+            double scale = binsPerUnit[i];
+            int radix = bins[i];
+            int last = radix - 1;
+            int base = i * count;
+            for (int n = 0; n < count; n++) {
+                double v = Math.max(Math.min(columns[base + n], max), min);
+                int bin = Math.min((int) ((v - min) * scale), last);
+                out[n] = out[n] * radix + bin;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #indexBatchColumns(double[], int, long[])} for grids with fewer than
+     * 2^31 states, writing int indices.
+     */
+    public void indexBatchColumns(double[] columns, int count, int[] out) {
+        if (numStates > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Error: " + numStates + " states do not fit in int indices");
+        }
+        Arrays.fill(out, 0, count, 0);
+        for (int i = 0; i < features; i++) {
+            double min = minBounds[i];
+            double max = maxBounds[i];
+            double scale = binsPerUnit[i];
+            int radix = bins[i];
+            int last = radix - 1;
+            int base = i * count;
+            for (int n = 0; n < count; n++) {
+                double v = Math.max(Math.min(columns[base + n], max), min);
+                int bin = Math.min((int) ((v - min) * scale), last);
+                out[n] = out[n] * radix + bin;
+            }
+        }
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public int[] getBins() {
+        return bins.clone();
+    }
+
+    public double[] getMinBounds() {
+        return minBounds.clone();
+    }
+
+    public double[] getMaxBounds() {
+        return maxBounds.clone();
+    }
+
+    /**
+     * @return the total number of discrete states, i.e. the product of all bin counts.
+     */
+    public long getNumStates() {
+        return numStates;
+    }
+}
@@ -1,7 +1,5 @@
 package space;
 
-import java.util.Objects;
-
 /**
  * An abstract representation of a state in RL.
  * Concrete classes (e.g., GridWorldState, AtariState) will extend this.
@@ -33,7 +31,8 @@ public abstract class State {
 
     /**
      * Subclasses can override equals and hashCode if you plan to use states as map keys
-     * or want to compare them for uniqueness. Provide a default or let children define it.
+     * or want to compare them for uniqueness. The defaults use identity, consistently;
+     * for tabular lookups, use a {@link StateKey}.
      */
     @Override
     public boolean equals(Object o) {
@@ -42,7 +41,7 @@ public abstract class State {
 
     @Override
     public int hashCode() {
-        return Objects.hash();
+        return super.hashCode();
     }
 
     @Override
@@ -0,0 +1,88 @@
+package space;
+
+/**
+ * An immutable, compact key for a discretized state.
+ * The state is identified by a single long (usually a mixed-radix index of the
+ * per-feature bins) plus a terminal flag, so keys are cheap to compare, hash and copy
+ * and can be used directly as map keys by tabular agents.
+ * Use {@link #of(long)} to obtain keys through the shared intern pool.
+ */
+public final class StateKey extends State {
+    private static final StateKeyPool POOL = new StateKeyPool(1 << 16);
+
+    private final long index;
+    private final boolean terminal;
+    private final int hash;
+
+    public StateKey(long index, boolean terminal) {
+        this.index = index;
+        this.terminal = terminal;
+        this.hash = mix(index) ^ (terminal ? 0x5bd1e995 : 0);
+    }
+
+    /**
+     * Returns the pooled non-terminal key for the given index.
+     */
+    public static StateKey of(long index) {
+        return POOL.intern(index, false);
+    }
+
+    /**
+     * Returns the pooled key for the given index and terminal flag.
+     */
+    public static StateKey of(long index, boolean terminal) {
+        return POOL.intern(index, terminal);
+    }
+
+    /**
+     * Finalizer step of MurmurHash3, folded to 32 bits.
+     * Consecutive mixed-radix indices end up in unrelated buckets.
+     */
+    static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * Keys are immutable, so a copy is the key itself.
+     */
+    @Override
+    public StateKey copy() {
+        return this;
+    }
+
+    @Override
+    public boolean isTerminal() {
+        return terminal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StateKey)) {
+            return false;
+        }
+        StateKey other = (StateKey) o;
+        return index == other.index && terminal == other.terminal;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "StateKey{index=" + index + (terminal ? ", terminal" : "") + "}";
+    }
+}
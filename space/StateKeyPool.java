@@ -0,0 +1,35 @@
+package space;
+
+/**
+ * A fixed-size, direct-mapped cache of {@link StateKey} instances.
+ * Hot keys are returned from the cache instead of being allocated again; a miss
+ * replaces whatever key occupied the slot. Keys are immutable, so concurrent use
+ * is safe without locking: a race only costs an extra allocation.
+ */
+public class StateKeyPool {
+    private final StateKey[] slots;
+    private final int mask;
+
+    /**
+     * @param capacity number of cached keys; rounded up to a power of two.
+     */
+    public StateKeyPool(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new StateKey[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns a key equal to new StateKey(index, terminal), reusing a cached instance if possible.
+     */
+    public StateKey intern(long index, boolean terminal) {
+        int slot = (StateKey.mix(index) ^ (terminal ? 1 : 0)) & mask;
+        StateKey cached = slots[slot];
+        if (cached != null && cached.getIndex() == index && cached.isTerminal() == terminal) {
+            return cached;
+        }
+        StateKey key = new StateKey(index, terminal);
+        slots[slot] = key;
+        return key;
+    }
+}
@@ -0,0 +1,209 @@
+package trainer;
+
+import A2C.Model;
+import A2C.SoftmaxPolicy;
+import A2C.ValueFunction;
+import environment.CartPole;
+import linalg.Precision;
+import util.RolloutBuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains an actor-critic on CartPole with several asynchronous actor-learner threads (A3C).
+ * Each worker owns its CartPole, a local snapshot of the actor and critic parameters and
+ * its own gradient buffers. It acts with the snapshot for up to nSteps steps, computes the
+ * n-step actor and critic gradients locally, and adds them to the shared flat parameter
+ * vectors without locks (Hogwild-style): elements are read and written with opaque
+ * accesses, so values never tear, but concurrent additions to the same element may be lost.
+ * The snapshot is refreshed from the shared parameters every syncInterval updates.
+ */
+public class A3CTrainer {
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(double[].class);
+
+    private final int numThreads;
+    private final SoftmaxPolicy policy;         // shared parameters of the actor
+    private final ValueFunction valueFunction;  // shared parameters of the critic
+    private final double gamma;
+    private final double actorLr;
+    private final double criticLr;
+    private final int nSteps;
+    private final int syncInterval;
+
+    public A3CTrainer(int numThreads, double gamma, double actorLr, double criticLr) {
+        this(numThreads, new SoftmaxPolicy(4, 2, new Random()), new ValueFunction(4, new Random()),
+                gamma, actorLr, criticLr, 5, 1);
+    }
+
+    /**
+     * @param policy actor whose parameters are shared by all workers (for example over an {@link A2C.MLP}).
+     * @param valueFunction critic whose parameters are shared by all workers.
+     * @param nSteps maximum number of steps per update; returns bootstrap from V after the last one.
+     * @param syncInterval number of updates a worker applies between refreshes of its snapshot.
+     * @throws IllegalArgumentException if either model stores float parameters; the lock-free
+     *         updates work on double parameters only.
+     */
+    public A3CTrainer(int numThreads, SoftmaxPolicy policy, ValueFunction valueFunction,
+                      double gamma, double actorLr, double criticLr, int nSteps, int syncInterval) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("Error: the number of threads must be positive");
+        }
+        if (nSteps <= 0 || syncInterval <= 0) {
+            throw new IllegalArgumentException("Error: nSteps and syncInterval must be positive");
+        }
+        if (policy.getPrecision() != Precision.DOUBLE || valueFunction.getPrecision() != Precision.DOUBLE) {
+            throw new IllegalArgumentException("Error: A3C needs models with double parameters");
+        }
+        this.numThreads = numThreads;
+        this.policy = policy;
+        this.valueFunction = valueFunction;
+        this.gamma = gamma;
+        this.actorLr = actorLr;
+        this.criticLr = criticLr;
+        this.nSteps = nSteps;
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Runs the given number of episodes on every worker thread and blocks until all finish.
+     * @param episodesPerThread episodes run by each worker.
+     * @return the total number of environment steps taken by all workers.
+     */
+    public long train(int episodesPerThread) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int w = 0; w < numThreads; w++) {
+                int worker = w;
+                results.add(pool.submit(() -> runWorker(worker, episodesPerThread)));
+            }
+            long totalSteps = 0;
+            for (Future<Long> result : results) {
+                totalSteps += result.get();
+            }
+            return totalSteps;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error: a training worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // One worker: a private environment, snapshot and gradients, adding into the shared parameters.
+    private long runWorker(int worker, int episodes) {
+        CartPole env = new CartPole();
+        Random random = new Random();
+        Model actorModel = policy.getModel();
+        Model criticModel = valueFunction.getModel();
+        int stateDim = policy.getStateDim();
+        int actionDim = policy.getActionDim();
+
+        double[] sharedActor = policy.getParameters();
+        double[] sharedCritic = valueFunction.getParameters();
+        double[] localActor = new double[sharedActor.length];
+        double[] localCritic = new double[sharedCritic.length];
+        double[] actorGrad = new double[sharedActor.length];
+        double[] criticGrad = new double[sharedCritic.length];
+        refresh(sharedActor, localActor);
+        refresh(sharedCritic, localCritic);
+
+        RolloutBuffer buffer = new RolloutBuffer(nSteps, 1, stateDim, actionDim);
+        double[] state = new double[stateDim];
+        double[] probs = new double[actionDim];
+        double[] value = new double[1];
+        double[] logits = new double[nSteps * actionDim];
+        double[] dLogits = new double[nSteps * actionDim];
+        double[] values = new double[nSteps];
+        long steps = 0;
+        long updates = 0;
+
+        for (int episode = 0; episode < episodes; episode++) {
+            env.reset(state);
+            double totalReward = 0.0;
+            while (!env.isDone()) {
+                // Act with the snapshot for up to nSteps steps.
+                buffer.clear();
+                while (!buffer.isFull() && !env.isDone()) {
+                    policy.forward(localActor, state, probs);
+                    int action = SoftmaxPolicy.sample(probs, random);
+                    criticModel.forward(localCritic, state, value);
+                    buffer.record(0, state, action, probs, Math.log(probs[action]), value[0]);
+
+                    double reward = env.step(action, state);
+                    buffer.recordOutcome(0, reward, env.isDone());
+                    buffer.advance();
+                    totalReward += reward;
+                    steps++;
+                }
+                value[0] = 0.0;
+                if (!env.isDone()) {
+                    criticModel.forward(localCritic, state, value);
+                }
+                buffer.computeAdvantages(gamma, 1.0, value);
+
+                // n-step gradients at the snapshot. The stored probabilities are the snapshot's,
+                // so the forward passes only rebuild the activations read by the backward passes.
+                // Both passes use the snapshot, never the shared vectors other workers are writing.
+                int rows = buffer.size();
+                double[] states = buffer.getStates();
+                int[] actions = buffer.getActions();
+                double[] oldProbs = buffer.getProbs();
+                double[] advantages = buffer.getAdvantages();
+                for (int n = 0; n < rows; n++) {
+                    int row = n * actionDim;
+                    for (int i = 0; i < actionDim; i++) {
+                        dLogits[row + i] = advantages[n] * (((i == actions[n]) ? 1.0 : 0.0) - oldProbs[row + i]);
+                    }
+                }
+                Arrays.fill(actorGrad, 0.0);
+                Arrays.fill(criticGrad, 0.0);
+                actorModel.forwardBatch(localActor, states, rows, logits);
+                policy.accumulateGradientBatch(localActor, states, 0, rows, dLogits, 1.0, actorGrad);
+                // The squared-error gradient of V(s) is (G - V(s)) dV/dtheta, and G - V(s) is the advantage.
+                criticModel.forwardBatch(localCritic, states, rows, values);
+                criticModel.backwardBatch(localCritic, states, 0, rows, advantages, 1.0, criticGrad);
+
+                apply(sharedActor, actorLr, actorGrad);
+                apply(sharedCritic, criticLr, criticGrad);
+                updates++;
+                if (updates % syncInterval == 0) {
+                    refresh(sharedActor, localActor);
+                    refresh(sharedCritic, localCritic);
+                }
+            }
+            System.out.println("Worker " + worker + " episode " + episode + ": Total Reward = " + totalReward);
+        }
+        return steps;
+    }
+
+    // shared += learningRate * grad, without locks; a concurrent addition to the same element may be lost.
+    private static void apply(double[] shared, double learningRate, double[] grad) {
+        for (int i = 0; i < grad.length; i++) {
+            double current = (double) ELEMENTS.getOpaque(shared, i);
+            ELEMENTS.setOpaque(shared, i, current + learningRate * grad[i]);
+        }
+    }
+
+    private static void refresh(double[] shared, double[] local) {
+        for (int i = 0; i < local.length; i++) {
+            local[i] = (double) ELEMENTS.getOpaque(shared, i);
+        }
+    }
+
+    public SoftmaxPolicy getPolicy() {
+        return policy;
+    }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
+    }
+}
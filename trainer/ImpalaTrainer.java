@@ -0,0 +1,270 @@
+package trainer;
+
+import A2C.PolicyPublisher;
+import A2C.PolicySnapshot;
+import A2C.SoftmaxPolicy;
+import A2C.ValueFunction;
+import environment.CartPole;
+import linalg.Precision;
+import util.RolloutBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trains an actor-critic on CartPole with decoupled actors and a learner (IMPALA).
+ * Actor threads each run their own CartPole with the latest policy snapshot the learner has
+ * published and push fixed-length trajectories into a bounded queue; they only block when
+ * the queue is full. The calling thread is the learner: it takes trajectories in batches,
+ * corrects for the lag between the snapshot that collected them and its current parameters
+ * with V-trace ({@link RolloutBuffer#computeVTrace}), applies one gradient step per batch
+ * and publishes a new snapshot. Collection and learning therefore overlap, and the number of
+ * actor threads can grow independently of the learner.
+ * <p>
+ * Trajectory buffers are recycled through a second queue, so steady-state collection does
+ * not allocate; the only allocation per update is the published snapshot.
+ */
+public class ImpalaTrainer {
+    private static final double RHO_BAR = 1.0; // truncation of the importance weights in the targets
+    private static final double C_BAR = 1.0;   // truncation of the trace coefficients
+
+    private final int numActors;
+    private final SoftmaxPolicy policy;        // learner parameters of the actor
+    private final ValueFunction valueFunction; // learner parameters of the critic
+    private final double gamma;
+    private final double actorLr;
+    private final double criticLr;
+    private final int unrollLength;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    private PolicyPublisher publisher; // latest policy parameters published by the learner
+    private final AtomicInteger finishedEpisodes = new AtomicInteger();
+    private final AtomicLong totalSteps = new AtomicLong();
+
+    // A fixed-length piece of experience from one actor, with the state it ended in.
+    private static final class Trajectory {
+        final RolloutBuffer buffer;
+        final double[] lastState;
+        boolean lastDone;
+
+        Trajectory(int unrollLength, int stateDim, int actionDim) {
+            buffer = new RolloutBuffer(unrollLength, 1, stateDim, actionDim);
+            lastState = new double[stateDim];
+        }
+    }
+
+    public ImpalaTrainer(int numActors, double gamma, double actorLr, double criticLr) {
+        this(numActors, new SoftmaxPolicy(4, 2, new Random()), new ValueFunction(4, new Random()),
+                gamma, actorLr, criticLr, 20, 4, 16);
+    }
+
+    /**
+     * @param unrollLength number of steps per trajectory; episodes continue across trajectories.
+     * @param batchSize number of trajectories per learner update.
+     * @param queueCapacity maximum number of trajectories waiting for the learner.
+     * @throws IllegalArgumentException if either model stores float parameters.
+     */
+    public ImpalaTrainer(int numActors, SoftmaxPolicy policy, ValueFunction valueFunction,
+                         double gamma, double actorLr, double criticLr,
+                         int unrollLength, int batchSize, int queueCapacity) {
+        if (numActors <= 0) {
+            throw new IllegalArgumentException("Error: the number of actors must be positive");
+        }
+        if (unrollLength <= 0 || batchSize <= 0 || queueCapacity < batchSize) {
+            throw new IllegalArgumentException("Error: unroll length and batch size must be positive "
+                    + "and the queue must hold at least one batch");
+        }
+        if (policy.getPrecision() != Precision.DOUBLE || valueFunction.getPrecision() != Precision.DOUBLE) {
+            throw new IllegalArgumentException("Error: IMPALA needs models with double parameters");
+        }
+        this.numActors = numActors;
+        this.policy = policy;
+        this.valueFunction = valueFunction;
+        this.gamma = gamma;
+        this.actorLr = actorLr;
+        this.criticLr = criticLr;
+        this.unrollLength = unrollLength;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Trains until the given number of episodes, summed over all actors, have finished.
+     * @return the total number of environment steps taken by all actors.
+     */
+    public long train(int episodes) throws InterruptedException {
+        int stateDim = policy.getStateDim();
+        int actionDim = policy.getActionDim();
+        // Every buffer is either free, being filled by an actor, queued or being learned from.
+        BlockingQueue<Trajectory> full = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Trajectory> free = new ArrayBlockingQueue<>(queueCapacity + numActors + batchSize);
+        for (int i = 0; i < queueCapacity + numActors + batchSize; i++) {
+            free.add(new Trajectory(unrollLength, stateDim, actionDim));
+        }
+        finishedEpisodes.set(0);
+        totalSteps.set(0);
+        publisher = new PolicyPublisher(policy);
+
+        ExecutorService pool = Executors.newFixedThreadPool(numActors);
+        try {
+            List<Future<?>> actors = new ArrayList<>();
+            for (int a = 0; a < numActors; a++) {
+                actors.add(pool.submit(() -> runActor(episodes, full, free)));
+            }
+            runLearner(episodes, full, free, actors);
+            return totalSteps.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // One actor: a private environment, acting with the latest snapshot, until interrupted.
+    private Void runActor(int episodes, BlockingQueue<Trajectory> full, BlockingQueue<Trajectory> free)
+            throws InterruptedException {
+        CartPole env = new CartPole();
+        Random random = new Random();
+        double[] state = new double[policy.getStateDim()];
+        double[] probs = new double[policy.getActionDim()];
+        env.reset(state);
+        double totalReward = 0.0;
+
+        while (finishedEpisodes.get() < episodes) {
+            Trajectory trajectory = free.take();
+            RolloutBuffer buffer = trajectory.buffer;
+            PolicySnapshot snapshot = publisher.current(); // fixed for the whole trajectory
+            buffer.clear();
+            while (!buffer.isFull()) {
+                int action = snapshot.selectAction(state, probs, random);
+                // The learner recomputes the values with its own parameters.
+                buffer.record(0, state, action, probs, Math.log(probs[action]), 0.0);
+
+                double reward = env.step(action, state);
+                boolean done = env.isDone();
+                buffer.recordOutcome(0, reward, done);
+                buffer.advance();
+                totalReward += reward;
+
+                if (done) {
+                    int episode = finishedEpisodes.getAndIncrement();
+                    System.out.println("Episode " + episode + ": Total Reward = " + totalReward);
+                    totalReward = 0.0;
+                    env.reset(state);
+                }
+                trajectory.lastDone = done;
+            }
+            System.arraycopy(state, 0, trajectory.lastState, 0, state.length);
+            totalSteps.addAndGet(buffer.size());
+            full.put(trajectory);
+        }
+        return null;
+    }
+
+    private void runLearner(int episodes, BlockingQueue<Trajectory> full, BlockingQueue<Trajectory> free,
+                            List<Future<?>> actors) throws InterruptedException {
+        int actionDim = policy.getActionDim();
+        int rows = unrollLength;
+        double[] theta = policy.getParameters();
+        double[] critic = valueFunction.getParameters();
+        double[] actorGrad = new double[theta.length];
+        double[] criticGrad = new double[critic.length];
+        double[] probs = new double[rows * actionDim];
+        double[] dLogits = new double[rows * actionDim];
+        double[] ratios = new double[rows];
+        double[] errors = new double[rows];
+        double[] lastValue = new double[1];
+        List<Trajectory> batch = new ArrayList<>(batchSize);
+
+        while (finishedEpisodes.get() < episodes) {
+            batch.clear();
+            while (batch.size() < batchSize) {
+                Trajectory trajectory = full.poll(100, TimeUnit.MILLISECONDS);
+                if (trajectory != null) {
+                    batch.add(trajectory);
+                } else if (finishedEpisodes.get() >= episodes) {
+                    return;
+                } else {
+                    checkActors(actors);
+                }
+            }
+
+            Arrays.fill(actorGrad, 0.0);
+            Arrays.fill(criticGrad, 0.0);
+            for (Trajectory trajectory : batch) {
+                RolloutBuffer buffer = trajectory.buffer;
+                double[] states = buffer.getStates();
+                int[] actions = buffer.getActions();
+                double[] logProbs = buffer.getLogProbs();
+                double[] values = buffer.getValues();
+                double[] advantages = buffer.getAdvantages();
+                double[] returns = buffer.getReturns();
+
+                // Current policy and values at the collected states.
+                policy.forwardBatch(theta, states, rows, probs);
+                for (int n = 0; n < rows; n++) {
+                    ratios[n] = probs[n * actionDim + actions[n]] / Math.exp(logProbs[n]);
+                }
+                lastValue[0] = trajectory.lastDone ? 0.0 : valueFunction.value(trajectory.lastState);
+                valueFunction.valueBatch(states, rows, values);
+                buffer.computeVTrace(gamma, ratios, RHO_BAR, C_BAR, lastValue);
+
+                // Critic: squared error against the V-trace targets, after its forward pass above.
+                for (int n = 0; n < rows; n++) {
+                    errors[n] = returns[n] - values[n];
+                }
+                valueFunction.getModel().backwardBatch(states, rows, errors, 1.0, criticGrad);
+                // Actor: A_t * grad log pi(a_t|s_t), following the policy's forward pass above.
+                for (int n = 0; n < rows; n++) {
+                    int row = n * actionDim;
+                    for (int i = 0; i < actionDim; i++) {
+                        dLogits[row + i] = advantages[n] * (((i == actions[n]) ? 1.0 : 0.0) - probs[row + i]);
+                    }
+                }
+                policy.accumulateGradientBatch(states, rows, dLogits, 1.0, actorGrad);
+                free.put(trajectory);
+            }
+
+            double actorStep = actorLr / (batchSize * rows);
+            double criticStep = criticLr / (batchSize * rows);
+            for (int i = 0; i < theta.length; i++) {
+                theta[i] += actorStep * actorGrad[i];
+            }
+            for (int i = 0; i < critic.length; i++) {
+                critic[i] += criticStep * criticGrad[i];
+            }
+            publisher.publish();
+        }
+    }
+
+    // Rethrows the failure of an actor that stopped early, so the learner does not wait forever.
+    private static void checkActors(List<Future<?>> actors) throws InterruptedException {
+        for (Future<?> actor : actors) {
+            if (actor.isDone()) {
+                try {
+                    actor.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Error: an actor thread failed", e.getCause());
+                }
+            }
+        }
+    }
+
+    public SoftmaxPolicy getPolicy() {
+        return policy;
+    }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
+    }
+}
@@ -0,0 +1,128 @@
+package trainer;
+
+import agent.QLearningAgent;
+import environment.CartPole;
+import policy.EpsilonGreedyIntPolicy;
+import policy.IntPolicy;
+import policy.Schedule;
+import qtable.ConcurrentQTable;
+import space.Discretizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains tabular Q-learning on CartPole with several threads sharing one Q-table.
+ * Each worker owns its CartPole, its QLearningAgent and its policy (split from a
+ * common prototype, so each has an independent random number generator);
+ * only the {@link ConcurrentQTable} is shared, and it is updated without locks
+ * (Hogwild-style), so throughput scales with the number of cores.
+ */
+public class ParallelQLearningTrainer {
+    private final int numThreads;
+    private final Discretizer discretizer;
+    private final ConcurrentQTable qTable;
+    private final double learningRate;
+    private final double discountFactor;
+    private final IntPolicy policy;
+    private final int maxSteps;
+
+    public ParallelQLearningTrainer(int numThreads, Discretizer discretizer, int numActions,
+                                    double learningRate, double discountFactor,
+                                    Schedule epsilon, int maxSteps) {
+        this(numThreads, discretizer, numActions, learningRate, discountFactor,
+                new EpsilonGreedyIntPolicy(epsilon, new SplittableRandom()), maxSteps);
+    }
+
+    /**
+     * @param policy prototype policy; every worker uses its own {@link IntPolicy#split()} of it.
+     * @throws IllegalArgumentException if the policy cannot be split, for example a UCB policy
+     *         whose visit counts are not in a ConcurrentQTable.
+     */
+    public ParallelQLearningTrainer(int numThreads, Discretizer discretizer, int numActions,
+                                    double learningRate, double discountFactor,
+                                    IntPolicy policy, int maxSteps) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("Error: the number of threads must be positive");
+        }
+        try {
+            policy.split(); // reject policies whose splits would share unsafe state before any worker starts
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Error: the policy cannot be shared between worker threads", e);
+        }
+        this.numThreads = numThreads;
+        this.discretizer = discretizer;
+        this.qTable = new ConcurrentQTable(discretizer.getNumStates(), numActions);
+        this.learningRate = learningRate;
+        this.discountFactor = discountFactor;
+        this.policy = policy;
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * Runs the given number of episodes on every worker thread and blocks until all finish.
+     * @param episodesPerThread episodes run by each worker.
+     * @return the total number of environment steps taken by all workers.
+     */
+    public long train(int episodesPerThread) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int w = 0; w < numThreads; w++) {
+                IntPolicy workerPolicy = policy.split();
+                results.add(pool.submit(() -> runWorker(workerPolicy, episodesPerThread)));
+            }
+            long totalSteps = 0;
+            for (Future<Long> result : results) {
+                totalSteps += result.get();
+            }
+            return totalSteps;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error: a training worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // One worker: a private environment and agent writing into the shared table.
+    private long runWorker(IntPolicy policy, int episodes) {
+        CartPole env = new CartPole();
+        QLearningAgent agent = new QLearningAgent(learningRate, discountFactor, policy, discretizer, qTable);
+
+        double[] state = new double[discretizer.getFeatures()];
+        double[] nextState = new double[discretizer.getFeatures()];
+        long steps = 0;
+        for (int episode = 0; episode < episodes; episode++) {
+            env.reset(state);
+            for (int step = 0; step < maxSteps; step++) {
+                int action = agent.selectAction(state);
+                double reward = env.step(action, nextState);
+                boolean done = env.isDone();
+                agent.learn(state, action, reward, nextState, done);
+                steps++;
+
+                double[] tmp = state;
+                state = nextState;
+                nextState = tmp;
+
+                if (done) {
+                    break;
+                }
+            }
+        }
+        return steps;
+    }
+
+    public ConcurrentQTable getQTable() {
+        return qTable;
+    }
+
+    public Discretizer getDiscretizer() {
+        return discretizer;
+    }
+}
@@ -0,0 +1,89 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size log-linear histogram of non-negative long values (for example latencies in
+ * nanoseconds). Values below 16 get one bucket each; above that, every power of two is split
+ * into 16 equal buckets, so a recorded value is known to within 1/16 (about 6%) whatever its
+ * magnitude, in 960 buckets. Recording is a single atomic increment and never allocates;
+ * percentiles can be read from any thread while values are being recorded.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Adds one occurrence of value; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        counts.getAndIncrement(bucketOf(Math.max(0, value)));
+    }
+
+    /**
+     * @return the number of values recorded so far.
+     */
+    public long count() {
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            total += counts.get(b);
+        }
+        return total;
+    }
+
+    /**
+     * @param quantile a fraction in [0, 1], for example 0.5 for the median or 0.99.
+     * @return the largest value of the bucket holding that quantile, or 0 if nothing was recorded.
+     */
+    public long percentile(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("Error: quantile must be in [0, 1], got " + quantile);
+        }
+        // Counts are read once, so a concurrent record cannot make the ranks inconsistent.
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = counts.get(b);
+            total += snapshot[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank) {
+                return highestValueOf(b);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        int shift = exponent - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,381 @@
+package util;
+
+import linalg.Precision;
+
+import java.util.Random;
+
+/**
+ * Fixed-size, columnar storage for on-policy rollouts of horizon T over N environments.
+ * Every quantity is a flat primitive column indexed by row = t * N + env (states and
+ * action probabilities are row-major with stateDim and actionDim columns), so the
+ * buffer is allocated once and a whole rollout is a ready-made [T*N x stateDim] batch.
+ * <p>
+ * Usage per time step: {@link #record} and {@link #recordOutcome} for each environment,
+ * then {@link #advance}. When {@link #isFull()}, call {@link #computeAdvantages} and
+ * train on the rows, then {@link #clear()}.
+ * <p>
+ * With {@link Precision#FLOAT} the two wide columns, states and action probabilities,
+ * are stored as float ({@link #getFloatStates()}, {@link #getFloatProbs()}) for models
+ * with float parameters; the per-row scalars stay double.
+ */
+public class RolloutBuffer {
+    private final int horizon;
+    private final int numEnvs;
+    private final int stateDim;
+    private final int actionDim;
+    private final Precision precision;
+
+    private final double[] states;     // null with Precision.FLOAT
+    private final float[] floatStates; // null with Precision.DOUBLE
+    private final int[] actions;
+    private final double[] probs;
+    private final float[] floatProbs;
+    private final double[] logProbs;
+    private final double[] values;
+    private final double[] rewards;
+    private final boolean[] dones;
+    private final double[] returns;
+    private final double[] advantages;
+
+    private final double[] runningAdvantage; // per-env GAE accumulator for the backward sweep
+    private final int[] indices;             // permutation of the rows for mini-batches
+    private int step;
+
+    /**
+     * @param actionDim number of actions, or 0 to not store action probabilities.
+     */
+    public RolloutBuffer(int horizon, int numEnvs, int stateDim, int actionDim) {
+        this(horizon, numEnvs, stateDim, actionDim, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision storage precision of the states and action probabilities.
+     */
+    public RolloutBuffer(int horizon, int numEnvs, int stateDim, int actionDim, Precision precision) {
+        if (horizon <= 0 || numEnvs <= 0) {
+            throw new IllegalArgumentException("Error: horizon and number of environments must be positive");
+        }
+        this.horizon = horizon;
+        this.numEnvs = numEnvs;
+        this.stateDim = stateDim;
+        this.actionDim = actionDim;
+        this.precision = precision;
+        int rows = horizon * numEnvs;
+        boolean isFloat = (precision == Precision.FLOAT);
+        states = isFloat ? null : new double[rows * stateDim];
+        floatStates = isFloat ? new float[rows * stateDim] : null;
+        actions = new int[rows];
+        probs = isFloat ? null : new double[rows * actionDim];
+        floatProbs = isFloat ? new float[rows * actionDim] : null;
+        logProbs = new double[rows];
+        values = new double[rows];
+        rewards = new double[rows];
+        dones = new boolean[rows];
+        returns = new double[rows];
+        advantages = new double[rows];
+        runningAdvantage = new double[numEnvs];
+        indices = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            indices[i] = i;
+        }
+    }
+
+    /**
+     * Stores what is known before stepping environment env at the current time step.
+     *
+     * @param actionProbs the policy's distribution at state, or null if not stored.
+     * @return the row written.
+     */
+    public int record(int env, double[] state, int action, double[] actionProbs, double logProb, double value) {
+        if (step >= horizon) {
+            throw new IllegalStateException("Error: rollout buffer is full");
+        }
+        int row = step * numEnvs + env;
+        copyIn(state, states, floatStates, row * stateDim, stateDim);
+        actions[row] = action;
+        if (actionProbs != null) {
+            copyIn(actionProbs, probs, floatProbs, row * actionDim, actionDim);
+        }
+        logProbs[row] = logProb;
+        values[row] = value;
+        return row;
+    }
+
+    /**
+     * Stores the current time step of every environment at once, from row-major batches
+     * ([numEnvs x stateDim] states, [numEnvs x actionDim] probabilities), as produced by
+     * one batched forward pass over all environments.
+     *
+     * @param actionProbs the policy's distributions, or null if not stored.
+     * @param logProbs one log probability per environment, or null if not stored.
+     */
+    public void recordAll(double[] states, int[] actions, double[] actionProbs, double[] logProbs, double[] values) {
+        if (step >= horizon) {
+            throw new IllegalStateException("Error: rollout buffer is full");
+        }
+        int row = step * numEnvs;
+        copyIn(states, this.states, floatStates, row * stateDim, numEnvs * stateDim);
+        System.arraycopy(actions, 0, this.actions, row, numEnvs);
+        if (actionProbs != null) {
+            copyIn(actionProbs, probs, floatProbs, row * actionDim, numEnvs * actionDim);
+        }
+        if (logProbs != null) {
+            System.arraycopy(logProbs, 0, this.logProbs, row, numEnvs);
+        }
+        System.arraycopy(values, 0, this.values, row, numEnvs);
+    }
+
+    // Copies src into whichever of the double and float columns is stored, at offset.
+    private static void copyIn(double[] src, double[] column, float[] floatColumn, int offset, int length) {
+        if (column != null) {
+            System.arraycopy(src, 0, column, offset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                floatColumn[offset + i] = (float) src[i];
+            }
+        }
+    }
+
+    /**
+     * Stores the reward and end-of-episode flag observed after stepping environment env.
+     */
+    public void recordOutcome(int env, double reward, boolean done) {
+        int row = step * numEnvs + env;
+        rewards[row] = reward;
+        dones[row] = done;
+    }
+
+    /**
+     * Stores the rewards and end-of-episode flags of every environment at once.
+     */
+    public void recordOutcomes(double[] rewards, boolean[] dones) {
+        int row = step * numEnvs;
+        System.arraycopy(rewards, 0, this.rewards, row, numEnvs);
+        System.arraycopy(dones, 0, this.dones, row, numEnvs);
+    }
+
+    /**
+     * Moves to the next time step.
+     */
+    public void advance() {
+        step++;
+    }
+
+    public boolean isFull() {
+        return step == horizon;
+    }
+
+    public void clear() {
+        step = 0;
+    }
+
+    /**
+     * @return the number of rows recorded so far (completed time steps times environments).
+     */
+    public int size() {
+        return step * numEnvs;
+    }
+
+    /**
+     * Computes GAE(lambda) advantages and returns in place in one backward sweep:
+     *   delta_t = r_t + gamma * V(s_{t+1}) * (1 - done_t) - V(s_t)
+     *   A_t     = delta_t + gamma * lambda * (1 - done_t) * A_{t+1}
+     *   G_t     = A_t + V(s_t)
+     * With lambda = 1 this is the discounted return minus the value estimate.
+     *
+     * @param lastValues V of the state each environment is in after the last recorded
+     *                   step (ignored for environments whose last step ended an episode).
+     */
+    public void computeAdvantages(double gamma, double lambda, double[] lastValues) {
+        for (int env = 0; env < numEnvs; env++) {
+            runningAdvantage[env] = 0.0;
+        }
+        for (int t = step - 1; t >= 0; t--) {
+            for (int env = 0; env < numEnvs; env++) {
+                int row = t * numEnvs + env;
+                double nextValue = (t == step - 1) ? lastValues[env] : values[row + numEnvs];
+                double notDone = dones[row] ? 0.0 : 1.0;
+                double delta = rewards[row] + gamma * nextValue * notDone - values[row];
+                double advantage = delta + gamma * lambda * notDone * runningAdvantage[env];
+                runningAdvantage[env] = advantage;
+                advantages[row] = advantage;
+                returns[row] = advantage + values[row];
+            }
+        }
+    }
+
+    /**
+     * Computes V-trace targets (IMPALA) in place in one backward sweep, for rows collected by
+     * a behaviour policy mu and learned by a target policy pi. With the truncated importance
+     * weights rho_t = min(rhoBar, pi/mu) and c_t = min(cBar, pi/mu):
+     *   delta_t = rho_t * (r_t + gamma * V(s_{t+1}) * (1 - done_t) - V(s_t))
+     *   v_t     = V(s_t) + delta_t + gamma * c_t * (1 - done_t) * (v_{t+1} - V(s_{t+1}))
+     *   A_t     = rho_t * (r_t + gamma * v_{t+1} * (1 - done_t) - V(s_t))
+     * The targets v_t are written to the returns and the policy gradient weights A_t to the
+     * advantages. With pi = mu and rhoBar, cBar >= 1 this is computeAdvantages with lambda = 1.
+     *
+     * @param ratios pi(a_t|s_t) / mu(a_t|s_t) for every recorded row.
+     * @param lastValues V of the state each environment is in after the last recorded step.
+     */
+    public void computeVTrace(double gamma, double[] ratios, double rhoBar, double cBar, double[] lastValues) {
+        for (int env = 0; env < numEnvs; env++) {
+            runningAdvantage[env] = 0.0; // v_{t+1} - V(s_{t+1})
+        }
+        for (int t = step - 1; t >= 0; t--) {
+            for (int env = 0; env < numEnvs; env++) {
+                int row = t * numEnvs + env;
+                double nextValue = (t == step - 1) ? lastValues[env] : values[row + numEnvs];
+                double notDone = dones[row] ? 0.0 : 1.0;
+                double rho = Math.min(rhoBar, ratios[row]);
+                double c = Math.min(cBar, ratios[row]);
+                double nextTarget = nextValue + runningAdvantage[env];
+                double delta = rho * (rewards[row] + gamma * nextValue * notDone - values[row]);
+                double correction = delta + gamma * c * notDone * runningAdvantage[env];
+                runningAdvantage[env] = correction;
+                returns[row] = values[row] + correction;
+                advantages[row] = rho * (rewards[row] + gamma * nextTarget * notDone - values[row]);
+            }
+        }
+    }
+
+    /**
+     * Shuffles the recorded rows. Mini-batch b of size m is the view
+     * indices[b * m, min((b + 1) * m, size())) of the returned array, which is reused.
+     */
+    public int[] shuffle(Random random) {
+        int n = size();
+        for (int i = 0; i < n; i++) {
+            indices[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = indices[i];
+            indices[i] = indices[j];
+            indices[j] = tmp;
+        }
+        return indices;
+    }
+
+    /**
+     * Copies the states of rows indices[from, to) into out as a row-major batch.
+     */
+    public void gatherStates(int[] indices, int from, int to, double[] out) {
+        double[] states = getStates();
+        for (int i = from; i < to; i++) {
+            System.arraycopy(states, indices[i] * stateDim, out, (i - from) * stateDim, stateDim);
+        }
+    }
+
+    /**
+     * {@link #gatherStates(int[], int, int, double[])} for a buffer stored as float.
+     */
+    public void gatherStates(int[] indices, int from, int to, float[] out) {
+        float[] states = getFloatStates();
+        for (int i = from; i < to; i++) {
+            System.arraycopy(states, indices[i] * stateDim, out, (i - from) * stateDim, stateDim);
+        }
+    }
+
+    /**
+     * Copies the state of one row into out, in either precision.
+     */
+    public void getState(int row, double[] out) {
+        if (states != null) {
+            System.arraycopy(states, row * stateDim, out, 0, stateDim);
+        } else {
+            for (int j = 0; j < stateDim; j++) {
+                out[j] = floatStates[row * stateDim + j];
+            }
+        }
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    // Columns are returned without copying; rows beyond size() hold stale data.
+
+    /**
+     * @throws IllegalStateException if the states are stored as float.
+     */
+    public double[] getStates() {
+        if (states == null) {
+            throw new IllegalStateException("Error: the rollout is stored as float; use getFloatStates()");
+        }
+        return states;
+    }
+
+    /**
+     * @throws IllegalStateException if the states are stored as double.
+     */
+    public float[] getFloatStates() {
+        if (floatStates == null) {
+            throw new IllegalStateException("Error: the rollout is stored as double; use getStates()");
+        }
+        return floatStates;
+    }
+
+    public int[] getActions() {
+        return actions;
+    }
+
+    /**
+     * @throws IllegalStateException if the probabilities are stored as float.
+     */
+    public double[] getProbs() {
+        if (probs == null) {
+            throw new IllegalStateException("Error: the rollout is stored as float; use getFloatProbs()");
+        }
+        return probs;
+    }
+
+    /**
+     * @throws IllegalStateException if the probabilities are stored as double.
+     */
+    public float[] getFloatProbs() {
+        if (floatProbs == null) {
+            throw new IllegalStateException("Error: the rollout is stored as double; use getProbs()");
+        }
+        return floatProbs;
+    }
+
+    public double[] getLogProbs() {
+        return logProbs;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public double[] getRewards() {
+        return rewards;
+    }
+
+    public boolean[] getDones() {
+        return dones;
+    }
+
+    public double[] getReturns() {
+        return returns;
+    }
+
+    public double[] getAdvantages() {
+        return advantages;
+    }
+
+    public int getHorizon() {
+        return horizon;
+    }
+
+    public int getNumEnvs() {
+        return numEnvs;
+    }
+
+    public int getStateDim() {
+        return stateDim;
+    }
+
+    public int getActionDim() {
+        return actionDim;
+    }
+}
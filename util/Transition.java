@@ -5,6 +5,7 @@ public class Transition {
     public int action;       // action taken
     public double reward;    // immediate reward
     public double oldLogProb; // log probability under the old policy
+    public double[] oldProbs; // full action distribution under the old policy (TRPO)
     public double value;     // critic's value estimate at state
     public double returnG;   // discounted return computed later
     public double advantage; // advantage: returnG - value